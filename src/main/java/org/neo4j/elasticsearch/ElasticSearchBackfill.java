@@ -0,0 +1,77 @@
+package org.neo4j.elasticsearch;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands the nodes of some labels to the reindex queue, to be rendered for the given indices of the label only,
+ * at most <code>rate</code> nodes per second, and waits while the queue has more than a second's worth of nodes pending.
+ */
+class ElasticSearchBackfill implements Runnable {
+    private final static Logger logger = Logger.getLogger(ElasticSearchBackfill.class.getName());
+
+    private final GraphDatabaseService db;
+    private final ElasticSearchReindexQueue reindexQueue;
+    private final Map<String, Set<String>> labels;
+    private final int rate;
+
+    /**
+     * @param labels the indices to backfill by label
+     */
+    public ElasticSearchBackfill(GraphDatabaseService db, ElasticSearchReindexQueue reindexQueue, Map<String, Set<String>> labels, int rate) {
+        this.db = db;
+        this.reindexQueue = reindexQueue;
+        this.labels = labels;
+        this.rate = Math.max(1, rate);
+    }
+
+    @Override
+    public void run() {
+        try {
+            for (Map.Entry<String, Set<String>> entry : labels.entrySet()) {
+                long count = backfill(Label.label(entry.getKey()), entry.getValue());
+                logger.info("ElasticSearch Integration: backfilled " + count + " nodes with label " + entry.getKey() + " into " + entry.getValue());
+            }
+        } catch (InterruptedException e) {
+            logger.info("ElasticSearch Integration: backfill of " + labels.keySet() + " cancelled");
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "ElasticSearch Integration: backfill of " + labels.keySet() + " failed", e);
+        }
+    }
+
+    private long backfill(Label label, Set<String> indices) throws InterruptedException {
+        long count = 0;
+        long windowStart = System.nanoTime();
+        int inWindow = 0;
+        try (Transaction tx = db.beginTx(); ResourceIterator<Node> nodes = db.findNodes(label)) {
+            while (nodes.hasNext()) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                reindexQueue.backfill(nodes.next().getId(), indices);
+                count++;
+                if (++inWindow >= rate) {
+                    long elapsed = System.nanoTime() - windowStart;
+                    if (elapsed < TimeUnit.SECONDS.toNanos(1)) {
+                        TimeUnit.NANOSECONDS.sleep(TimeUnit.SECONDS.toNanos(1) - elapsed);
+                    }
+                    while (reindexQueue.size() > rate) {
+                        TimeUnit.MILLISECONDS.sleep(100);
+                    }
+                    windowStart = System.nanoTime();
+                    inWindow = 0;
+                }
+            }
+            tx.success();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,195 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.action.BulkableAction;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The actions rendered for one transaction, handed from <code>beforeCommit</code> to <code>afterCommit</code>,
+ * and what they cost on the commit path: walking the transaction data (collect), building the documents (render)
+ * and handing them to the clusters (enqueue). With <code>detailed</code> the render time is also kept per label
+ * and the rendered size per field, related fields additionally keep the time spent following relationships.
+ */
+class ElasticSearchCommit {
+    private final long started = System.nanoTime();
+    private final boolean detailed;
+    private final Object event;
+    private final AtomicLong version = new AtomicLong();
+    private Collection<BulkableAction> actions = Collections.emptyList();
+
+    private long collectNanos;
+    private long renderNanos;
+    private long enqueueNanos;
+    private long finished;
+    private int documents;
+    private int renders;
+    private long bytes;
+    private Map<String, long[]> labels;
+    private Map<String, long[]> fields;
+
+    /**
+     * @param event the flight recorder event of the transaction, null if there's no flight recorder
+     */
+    public ElasticSearchCommit(boolean detailed, Object event) {
+        this.detailed = detailed;
+        this.event = event;
+        if (detailed) {
+            labels = new HashMap<>();
+            fields = new HashMap<>();
+        }
+    }
+
+    public boolean isDetailed() {
+        return detailed;
+    }
+
+    public Object getEvent() {
+        return event;
+    }
+
+    /**
+     * @return the version of the rendered documents, set to the transaction id once it is known in <code>afterCommit</code>
+     */
+    public AtomicLong getVersion() {
+        return version;
+    }
+
+    public Collection<BulkableAction> getActions() {
+        return actions;
+    }
+
+    /**
+     * Ends the collect phase, everything not spent rendering was spent collecting.
+     */
+    public void collected(Collection<BulkableAction> actions) {
+        this.actions = actions;
+        this.documents = actions.size();
+        this.collectNanos = System.nanoTime() - started - renderNanos;
+    }
+
+    public void rendered(String label, long nanos, long bytes) {
+        renderNanos += nanos;
+        renders++;
+        this.bytes += bytes;
+        if (detailed) add(labels, label, nanos, bytes);
+    }
+
+    public void field(String field, long nanos, long bytes) {
+        if (detailed) add(fields, field, nanos, bytes);
+    }
+
+    public void enqueued(long nanos) {
+        enqueueNanos = nanos;
+        finished = System.nanoTime();
+    }
+
+    private static void add(Map<String, long[]> costs, String key, long nanos, long bytes) {
+        long[] cost = costs.computeIfAbsent(key, k -> new long[2]);
+        cost[0] += nanos;
+        cost[1] += bytes;
+    }
+
+    public long getCollectNanos() {
+        return collectNanos;
+    }
+
+    public long getRenderNanos() {
+        return renderNanos;
+    }
+
+    public long getEnqueueNanos() {
+        return enqueueNanos;
+    }
+
+    /**
+     * @return the time spent by the extension on the commit path
+     */
+    public long getExtensionNanos() {
+        return collectNanos + renderNanos + enqueueNanos;
+    }
+
+    /**
+     * @return the time from the start of <code>beforeCommit</code> to the end of <code>afterCommit</code>,
+     * including the commit itself and other handlers
+     */
+    public long getTotalNanos() {
+        return finished - started;
+    }
+
+    public int getDocuments() {
+        return documents;
+    }
+
+    /**
+     * @return how often a document was rendered, a node changed in several ways is rendered once per change
+     */
+    public int getRenders() {
+        return renders;
+    }
+
+    /**
+     * @return the approximate size of all renders, 0 unless detailed
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return up to <code>limit</code> labels by render time, as <code>label=time</code>
+     */
+    public List<String> topLabels(int limit) {
+        return top(labels, limit, 0);
+    }
+
+    /**
+     * @return up to <code>limit</code> fields by rendered size, as <code>field=bytes</code>,
+     * related fields also with the time spent following relationships
+     */
+    public List<String> topFields(int limit) {
+        return top(fields, limit, 1);
+    }
+
+    private static List<String> top(Map<String, long[]> costs, int limit, int by) {
+        if (costs == null) return Collections.emptyList();
+        List<Map.Entry<String, long[]>> entries = new ArrayList<>(costs.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue()[by], a.getValue()[by]));
+        List<String> top = new ArrayList<>();
+        for (Map.Entry<String, long[]> entry : entries.subList(0, Math.min(limit, entries.size()))) {
+            long nanos = entry.getValue()[0], bytes = entry.getValue()[1];
+            top.add(entry.getKey() + "=" + (by == 0 ? micros(nanos) : bytes + "b" + (nanos > 0 ? "/" + micros(nanos) : "")));
+        }
+        return top;
+    }
+
+    private static String micros(long nanos) {
+        return nanos / 1000 + "us";
+    }
+
+    /**
+     * @return the approximate JSON size of a property value
+     */
+    public static long size(Object value) {
+        if (value == null) return 4;
+        if (value instanceof String) return ((String) value).length() + 2;
+        if (value instanceof Collection) {
+            long size = 2;
+            for (Object element : (Collection) value) size += size(element) + 1;
+            return size;
+        }
+        if (value instanceof Object[]) {
+            long size = 2;
+            for (Object element : (Object[]) value) size += size(element) + 1;
+            return size;
+        }
+        if (value.getClass().isArray()) return 2 + Array.getLength(value) * 9L;
+        if (value instanceof Boolean) return 5;
+        return 8;
+    }
+}
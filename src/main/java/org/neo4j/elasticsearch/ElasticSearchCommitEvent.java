@@ -0,0 +1,68 @@
+package org.neo4j.elasticsearch;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A flight recorder event spanning a transaction from <code>beforeCommit</code> to <code>afterCommit</code>, with the
+ * time the extension spent in it, so recordings show it next to GC pauses and store I/O.
+ * Only compiled by JDKs with the <code>jdk.jfr</code> API and only loaded if the JVM has a flight recorder,
+ * see {@link ElasticSearchCommitLog}.
+ */
+@Name("org.neo4j.elasticsearch.Commit")
+@Label("ElasticSearch Commit")
+@Category({"Neo4j", "ElasticSearch"})
+@Description("Time the ElasticSearch extension spent on a transaction's commit path")
+@StackTrace(false)
+class ElasticSearchCommitEvent extends Event {
+    @Label("Transaction Id")
+    long transactionId;
+
+    @Label("Collect")
+    @Timespan(Timespan.NANOSECONDS)
+    long collect;
+
+    @Label("Render")
+    @Timespan(Timespan.NANOSECONDS)
+    long render;
+
+    @Label("Enqueue")
+    @Timespan(Timespan.NANOSECONDS)
+    long enqueue;
+
+    @Label("Documents")
+    int documents;
+
+    @Label("Renders")
+    int renders;
+
+    @Label("Approximate Bytes")
+    @Description("Only for the transactions sampled by elasticsearch.slow_commit_sample, 0 for the others")
+    long bytes;
+
+    static Object start() {
+        ElasticSearchCommitEvent event = new ElasticSearchCommitEvent();
+        if (!event.isEnabled()) return null;
+        event.begin();
+        return event;
+    }
+
+    static void finish(Object recorded, long transactionId, ElasticSearchCommit commit) {
+        ElasticSearchCommitEvent event = (ElasticSearchCommitEvent) recorded;
+        event.end();
+        if (!event.shouldCommit()) return;
+        event.transactionId = transactionId;
+        event.collect = commit.getCollectNanos();
+        event.render = commit.getRenderNanos();
+        event.enqueue = commit.getEnqueueNanos();
+        event.documents = commit.getDocuments();
+        event.renders = commit.getRenders();
+        event.bytes = commit.getBytes();
+        event.commit();
+    }
+}
@@ -0,0 +1,132 @@
+package org.neo4j.elasticsearch;
+
+import org.neo4j.graphdb.event.TransactionData;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Accounts for the time the extension spends on the commit path. Transactions that take longer than the threshold
+ * from <code>beforeCommit</code> to <code>afterCommit</code> are logged with their entity counts, rendered size and
+ * most expensive labels and fields, at most one per interval, the others are only counted.
+ * The phase times are taken on every commit, the rendered sizes and the costs per label and field only on a sample
+ * of them, so a logged transaction lists them only if it was sampled.
+ * Every transaction is also recorded as an <code>ElasticSearchCommitEvent</code> if the JVM has a flight recorder.
+ * The event is only compiled by JDKs with the <code>jdk.jfr</code> API, so it is looked up at runtime.
+ */
+class ElasticSearchCommitLog {
+    private final static Logger logger = Logger.getLogger(ElasticSearchCommitLog.class.getName());
+    private final static MethodHandle START_EVENT = event("start", MethodType.methodType(Object.class));
+    private final static MethodHandle FINISH_EVENT = event("finish",
+            MethodType.methodType(void.class, Object.class, long.class, ElasticSearchCommit.class));
+    private final static int TOP = 5;
+
+    private final long thresholdNanos;
+    private final long intervalNanos;
+    private final int sample;
+    private final AtomicLong nextLog = new AtomicLong(System.nanoTime());
+    private final AtomicLong slow = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    /**
+     * @param threshold the time from which on a transaction is logged, 0 to log none
+     * @param interval the time at least between two logged transactions
+     */
+    public ElasticSearchCommitLog(long threshold, long interval, TimeUnit unit) {
+        this(threshold, interval, unit, 1);
+    }
+
+    /**
+     * @param sample one in how many transactions accounts for sizes, labels and fields
+     */
+    public ElasticSearchCommitLog(long threshold, long interval, TimeUnit unit, int sample) {
+        this.thresholdNanos = unit.toNanos(threshold);
+        this.intervalNanos = unit.toNanos(interval);
+        this.sample = Math.max(1, sample);
+    }
+
+    private static MethodHandle event(String method, MethodType type) {
+        try {
+            Class<?> event = Class.forName(ElasticSearchCommitLog.class.getPackage().getName() + ".ElasticSearchCommitEvent");
+            return MethodHandles.lookup().findStatic(event, method, type);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return whether commits are recorded as flight recorder events
+     */
+    static boolean hasFlightRecorder() {
+        return START_EVENT != null && FINISH_EVENT != null;
+    }
+
+    public ElasticSearchCommit begin() {
+        boolean detailed = thresholdNanos > 0 && (sample == 1 || ThreadLocalRandom.current().nextInt(sample) == 0);
+        return new ElasticSearchCommit(detailed, hasFlightRecorder() ? startEvent() : null);
+    }
+
+    private static Object startEvent() {
+        try {
+            return (Object) START_EVENT.invokeExact();
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    public void end(TransactionData transactionData, ElasticSearchCommit commit) {
+        if (commit.getEvent() != null) {
+            try {
+                FINISH_EVENT.invokeExact(commit.getEvent(), transactionData.getTransactionId(), commit);
+            } catch (Throwable e) {
+                // the event is lost, the commit isn't
+            }
+        }
+        if (thresholdNanos <= 0 || commit.getTotalNanos() < thresholdNanos) return;
+        slow.incrementAndGet();
+        long now = System.nanoTime(), next = nextLog.get();
+        if (now - next < 0 || !nextLog.compareAndSet(next, now + intervalNanos)) {
+            suppressed.incrementAndGet();
+            return;
+        }
+        if (logger.isLoggable(Level.WARNING)) logger.warning(message(transactionData, commit, suppressed.getAndSet(0)));
+    }
+
+    /**
+     * @return the number of slow transactions, logged or not
+     */
+    public long getSlow() {
+        return slow.get();
+    }
+
+    private static String message(TransactionData data, ElasticSearchCommit commit, long suppressed) {
+        return "ElasticSearch Integration: slow commit of transaction " + data.getTransactionId()
+                + " took " + millis(commit.getTotalNanos()) + ", " + millis(commit.getExtensionNanos()) + " in the extension"
+                + " (collect " + millis(commit.getCollectNanos()) + ", render " + millis(commit.getRenderNanos())
+                + ", enqueue " + millis(commit.getEnqueueNanos()) + ")"
+                + ", nodes created " + count(data.createdNodes()) + " deleted " + count(data.deletedNodes())
+                + ", relationships created " + count(data.createdRelationships()) + " deleted " + count(data.deletedRelationships())
+                + ", properties assigned " + count(data.assignedNodeProperties()) + " removed " + count(data.removedNodeProperties())
+                + ", labels assigned " + count(data.assignedLabels()) + " removed " + count(data.removedLabels())
+                + ", " + commit.getDocuments() + " documents from " + commit.getRenders() + " renders"
+                + (commit.isDetailed() ? " of about " + commit.getBytes() + " bytes"
+                        + ", labels " + commit.topLabels(TOP) + ", fields " + commit.topFields(TOP) : " (not sampled for sizes, labels and fields)")
+                + (suppressed > 0 ? ", " + suppressed + " slow commits not logged since the last one" : "");
+    }
+
+    private static String millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos) + "ms";
+    }
+
+    private static int count(Iterable<?> entities) {
+        int count = 0;
+        for (Object ignored : entities) count++;
+        return count;
+    }
+}
@@ -0,0 +1,504 @@
+package org.neo4j.elasticsearch;
+
+import com.google.gson.JsonObject;
+import io.searchbox.action.BulkableAction;
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestClientFactory;
+import io.searchbox.client.JestResult;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.BulkResult;
+import io.searchbox.cluster.Health;
+import io.searchbox.indices.template.GetTemplate;
+import io.searchbox.indices.template.PutTemplate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One ElasticSearch cluster the changes are sent to. Every cluster has its own queue, sender thread and retry state,
+ * so a slow or unreachable cluster neither holds back the others nor the commits.
+ * The client is built, the cluster health checked and the connection pool warmed up on the sender thread,
+ * changes submitted before that wait in the queue.
+ * Indices in rollover mode are looked up and rolled over on the sender thread too, see {@link ElasticSearchRollover}.
+ */
+class ElasticSearchConnection {
+    private final static Logger logger = Logger.getLogger(ElasticSearchConnection.class.getName());
+    private final static int WARMUP_CONNECTIONS = 4;
+    private final static long MAX_RETRY_DELAY = TimeUnit.SECONDS.toMillis(30);
+    private final static long STOP_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+    private final static long RETRY_DELAY = TimeUnit.SECONDS.toMillis(1);
+
+    public final static String DEFAULT_NAME = "default";
+
+    enum State { STARTING, READY, FAILED, STOPPED }
+
+    private final String name;
+    private final String hostName;
+    private final boolean discovery;
+    private final Set<String> indices;
+    private final int batchSize;
+    private final BlockingQueue<BulkableAction> queue;
+
+    private volatile State state = State.STARTING;
+    private volatile boolean running = true;
+    private volatile JestClient client;
+    private volatile Map<String, JsonObject> templates = Collections.emptyMap();
+    private volatile Map<String, ElasticSearchRollover.Conditions> rolloverConditions = Collections.emptyMap();
+    private volatile Map<String, ElasticSearchRollover> rollovers = Collections.emptyMap();
+    private volatile boolean rolloversPending;
+    private volatile LongSupplier highestNodeId = () -> -1L;
+    private final ReadWriteLock routing = new ReentrantReadWriteLock();
+    private long rolloverInterval = TimeUnit.MINUTES.toMillis(1);
+    private long maxRetryTime = TimeUnit.MINUTES.toMillis(5);
+    private long lastRolloverCheck;
+    private Thread sender;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param indices the indices sent to this cluster, all if empty
+     */
+    public ElasticSearchConnection(String name, String hostName, boolean discovery, Set<String> indices, int batchSize, int queueSize) {
+        this.name = name;
+        this.hostName = hostName;
+        this.discovery = discovery;
+        this.indices = indices;
+        this.batchSize = Math.max(1, batchSize);
+        this.queue = new LinkedBlockingQueue<>(Math.max(1, queueSize));
+    }
+
+    /**
+     * A connection to an already built client for all indices, ready right away.
+     */
+    public ElasticSearchConnection(JestClient client) {
+        this(DEFAULT_NAME, null, false, Collections.<String>emptySet(), 1000, 10000);
+        this.client = client;
+        this.state = State.READY;
+        start();
+    }
+
+    public void start() {
+        if (sender != null) return;
+        sender = new Thread(this::run, "neo4j-elasticsearch-" + name);
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * Gives a ready connection some time to empty its queue, then shuts the client down.
+     */
+    public void stop() {
+        running = false;
+        if (sender != null) {
+            try {
+                if (state == State.READY) sender.join(STOP_TIMEOUT);
+                sender.interrupt();
+                sender.join(STOP_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        state = State.STOPPED;
+        if (client != null) client.shutdownClient();
+        int discarded = queue.size();
+        if (discarded > 0) {
+            logger.warning("ElasticSearch Integration: discarding " + discarded + " queued actions for " + name);
+            dropped.addAndGet(discarded);
+            queue.clear();
+        }
+    }
+
+    private void run() {
+        if (!connect()) return;
+        List<BulkableAction> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                if (rolloversPending && !loadRollovers()) {
+                    Thread.sleep(RETRY_DELAY);
+                    continue;
+                }
+                rollover();
+                BulkableAction first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                send(route(batch), maxRetryTime);
+            } catch (InterruptedException e) {
+                dropped.addAndGet(batch.size());
+                return;
+            }
+            batch.clear();
+        }
+    }
+
+    private boolean connect() {
+        if (state == State.READY) return true;
+        try {
+            JestClientFactory factory = new JestClientFactory();
+            factory.setHttpClientConfig(JestDefaultHttpConfigFactory.getConfigFor(hostName, discovery));
+            client = factory.getObject();
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "ElasticSearch Integration: can't create client for " + name + " at " + hostName, e);
+            state = State.FAILED;
+            dropped.addAndGet(queue.size());
+            queue.clear();
+            return false;
+        }
+        long delay = 100;
+        while (running) {
+            try {
+                JestResult health = client.execute(new Health.Builder().build());
+                if (health.isSucceeded()) break;
+                logger.warning("ElasticSearch Integration: health check of " + name + " failed: " + health.getErrorMessage());
+            } catch (Exception e) {
+                logger.log(Level.FINE, "ElasticSearch Integration: " + name + " not reachable", e);
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                return false;
+            }
+            delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+        }
+        if (!running) return false;
+        warmUp();
+        applyTemplates(templates);
+        loadRollovers();
+        state = State.READY;
+        logger.info("ElasticSearch Integration: connected to " + name + " at " + hostName + ", " + queue.size() + " actions queued");
+        return true;
+    }
+
+    /**
+     * Opens a few pooled connections in parallel, so the first commits don't pay for the handshakes.
+     */
+    private void warmUp() {
+        final CountDownLatch latch = new CountDownLatch(WARMUP_CONNECTIONS);
+        for (int i = 0; i < WARMUP_CONNECTIONS; i++) {
+            client.executeAsync(new Health.Builder().build(), new JestResultHandler<JestResult>() {
+                @Override
+                public void completed(JestResult result) {
+                    latch.countDown();
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    latch.countDown();
+                }
+            });
+        }
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sets the index templates of the indices of this cluster, they are created or updated before the connection
+     * gets ready, or right away if it is. Templates only apply to indices created afterwards.
+     */
+    public void setTemplates(Map<String, JsonObject> templates) {
+        this.templates = templates;
+        if (state == State.READY) applyTemplates(templates);
+    }
+
+    private void applyTemplates(Map<String, JsonObject> templates) {
+        for (Map.Entry<String, JsonObject> entry : templates.entrySet()) {
+            if (!accepts(ElasticSearchIndexTemplates.index(entry.getValue()))) continue;
+            try {
+                JestResult existing = client.execute(new GetTemplate.Builder(entry.getKey()).build());
+                JsonObject current = existing.isSucceeded() && existing.getJsonObject() != null
+                        ? existing.getJsonObject().getAsJsonObject(entry.getKey()) : null;
+                if (current != null && entry.getValue().get("mappings").equals(current.get("mappings"))
+                        && entry.getValue().get("template").equals(current.get("template"))) {
+                    continue;
+                }
+                JestResult result = client.execute(new PutTemplate.Builder(entry.getKey(), entry.getValue()).build());
+                if (result.isSucceeded()) {
+                    logger.info("ElasticSearch Integration: " + (current == null ? "created" : "updated") + " template " + entry.getKey() + " on " + name);
+                } else {
+                    logger.warning("ElasticSearch Integration: can't put template " + entry.getKey() + " on " + name + ": " + result.getErrorMessage());
+                }
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "ElasticSearch Integration: can't put template " + entry.getKey() + " on " + name, e);
+            }
+        }
+    }
+
+    /**
+     * Sets the indices in rollover mode, their backing indices are looked up on the sender thread before anything
+     * else is sent.
+     *
+     * @param highestNodeId the highest node id in use, where the next backing index starts after a rollover
+     */
+    public void setRollovers(Map<String, ElasticSearchRollover.Conditions> conditions, LongSupplier highestNodeId) {
+        this.highestNodeId = highestNodeId;
+        this.rolloverConditions = conditions;
+        this.rolloversPending = true;
+    }
+
+    /**
+     * @param millis how often the rollover conditions are checked
+     */
+    public void setRolloverInterval(long millis) {
+        this.rolloverInterval = millis;
+    }
+
+    /**
+     * @param millis how long queued actions are retried before they are given up and counted as failed,
+     * so an action ElasticSearch keeps rejecting doesn't hold back the ones queued after it
+     */
+    public void setMaxRetryTime(long millis) {
+        this.maxRetryTime = millis;
+    }
+
+    /**
+     * @return false if ElasticSearch couldn't be asked for the backing indices and it should be retried
+     */
+    private boolean loadRollovers() {
+        rolloversPending = false;
+        Map<String, ElasticSearchRollover> loaded = new HashMap<>();
+        for (Map.Entry<String, ElasticSearchRollover.Conditions> entry : rolloverConditions.entrySet()) {
+            if (!accepts(entry.getKey())) continue;
+            ElasticSearchRollover rollover = rollovers.get(entry.getKey());
+            if (rollover == null || !rollover.getConditions().equals(entry.getValue())) {
+                rollover = new ElasticSearchRollover(entry.getKey(), entry.getValue());
+                try {
+                    rollover.load(client);
+                    logger.info("ElasticSearch Integration: " + entry.getKey() + " on " + name + " rolls over " + entry.getValue() + ", backing indices " + rollover.getIndices().values());
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "ElasticSearch Integration: can't look up the backing indices of " + entry.getKey() + " on " + name, e);
+                    rolloversPending = true;
+                    return false;
+                } catch (IllegalStateException e) {
+                    logger.severe("ElasticSearch Integration: " + entry.getKey() + " on " + name + " won't roll over, " + e.getMessage());
+                    continue;
+                }
+            }
+            loaded.put(entry.getKey(), rollover);
+        }
+        rollovers = loaded;
+        return true;
+    }
+
+    /**
+     * Rolls the indices over whose conditions are met, at most once per interval. Holds off synchronous sends meanwhile,
+     * a document of a node above the new start id must not go to the old backing index.
+     */
+    private void rollover() {
+        long now = System.currentTimeMillis();
+        if (rollovers.isEmpty() || now - lastRolloverCheck < rolloverInterval) return;
+        lastRolloverCheck = now;
+        routing.writeLock().lock();
+        try {
+            for (ElasticSearchRollover rollover : rollovers.values()) {
+                try {
+                    String index = rollover.rollover(client, highestNodeId.getAsLong() + 1);
+                    if (index != null) logger.info("ElasticSearch Integration: rolled " + rollover.getAlias() + " on " + name + " over to " + index);
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "ElasticSearch Integration: can't roll " + rollover.getAlias() + " over on " + name, e);
+                }
+            }
+        } finally {
+            routing.writeLock().unlock();
+        }
+    }
+
+    private List<BulkableAction> route(List<BulkableAction> actions) {
+        Map<String, ElasticSearchRollover> rollovers = this.rollovers;
+        if (rollovers.isEmpty()) return actions;
+        List<BulkableAction> routed = new ArrayList<>(actions.size());
+        for (BulkableAction action : actions) {
+            ElasticSearchRollover rollover = rollovers.get(action.getIndex());
+            routed.add(rollover == null ? action : rollover.route(action));
+        }
+        return routed;
+    }
+
+    /**
+     * Sends the actions as one bulk request. The whole request is retried on connection errors, 429 and 5xx,
+     * single items rejected with 429 or 5xx are retried on their own, other rejected items are counted as failed.
+     * Items rejected with 409 count as sent, ElasticSearch holds a newer version of their document already.
+     * Retries stop when the next one would start more than <code>retryTime</code> after the first attempt,
+     * the actions still pending are counted as failed then.
+     */
+    private void send(List<BulkableAction> actions, long retryTime) throws InterruptedException {
+        List<BulkableAction> pending = actions;
+        long started = System.currentTimeMillis();
+        long delay = 100;
+        while (true) {
+            try {
+                BulkResult result = client.execute(new Bulk.Builder().addAction(pending).build());
+                int code = result.getResponseCode();
+                JsonObject json = result.getJsonObject();
+                if (code == 429 || code >= 500 || json == null) {
+                    logger.log(Level.FINE, "ElasticSearch Integration: bulk request to " + name + " failed with " + code);
+                } else if (json.has("errors") && json.get("errors").getAsBoolean()) {
+                    pending = retryable(pending, result.getItems());
+                } else if (code >= 300) {
+                    failed.addAndGet(pending.size());
+                    logger.severe("ElasticSearch Update Failed on " + name + ": " + result.getErrorMessage());
+                    return;
+                } else {
+                    sent.addAndGet(pending.size());
+                    return;
+                }
+            } catch (Exception e) {
+                logger.log(Level.FINE, "ElasticSearch Integration: bulk request to " + name + " failed", e);
+            }
+            if (pending.isEmpty()) return;
+            if (System.currentTimeMillis() + delay - started > retryTime) {
+                failed.addAndGet(pending.size());
+                logger.warning("ElasticSearch Update Failed on " + name + ", giving up on " + pending.size() + " actions");
+                return;
+            }
+            retried.addAndGet(pending.size());
+            Thread.sleep(delay);
+            delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+        }
+    }
+
+    /**
+     * Later actions on a document whose earlier action is retried are retried after it too,
+     * so the retry can't overwrite a newer version of the document.
+     */
+    private List<BulkableAction> retryable(List<BulkableAction> actions, List<BulkResult.BulkResultItem> items) {
+        List<BulkableAction> retry = new ArrayList<>();
+        Set<String> retried = new HashSet<>();
+        for (int i = 0; i < actions.size(); i++) {
+            BulkableAction action = actions.get(i);
+            String key = action.getIndex() + "/" + action.getType() + "/" + action.getId();
+            BulkResult.BulkResultItem item = i < items.size() ? items.get(i) : null;
+            if (item == null || item.status == 429 || item.status >= 500 || retried.contains(key)) {
+                retry.add(action);
+                retried.add(key);
+            } else if (item.status == 409) {
+                sent.incrementAndGet();
+            } else if (item.error != null) {
+                failed.incrementAndGet();
+                logger.severe("ElasticSearch Update Failed on " + name + ": " + item.operation + " " + item.index + "/" + item.type + "/" + item.id + " " + item.error);
+            } else {
+                sent.incrementAndGet();
+            }
+        }
+        return retry;
+    }
+
+    /**
+     * Queues the actions for the indices of this cluster, dropping them if the queue is full.
+     * With <code>async</code> false they are sent right away instead, once, on the calling thread.
+     */
+    public void submit(Collection<BulkableAction> actions, boolean async) {
+        submit(actions, async, false);
+    }
+
+    /**
+     * @param requeue whether the caller takes care of the actions that don't fit in the queue, instead of dropping them
+     * @return false if some actions didn't fit in the queue and were left to the caller
+     */
+    public boolean submit(Collection<BulkableAction> actions, boolean async, boolean requeue) {
+        List<BulkableAction> accepted = new ArrayList<>(actions.size());
+        for (BulkableAction action : actions) {
+            if (accepts(action.getIndex())) accepted.add(action);
+        }
+        if (accepted.isEmpty()) return true;
+        if (!async && state == State.READY) {
+            routing.readLock().lock();
+            try {
+                send(route(accepted), 0);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                routing.readLock().unlock();
+            }
+            return true;
+        }
+        boolean queued = true;
+        for (BulkableAction action : accepted) {
+            if (running && state != State.FAILED && queue.offer(action)) continue;
+            if (requeue && running && state != State.FAILED) {
+                if (queued) logger.fine("ElasticSearch Integration: queue for " + name + " is full, leaving changes to the reindex queue");
+                queued = false;
+            } else if (dropped.getAndIncrement() == 0) {
+                logger.severe("ElasticSearch Integration: queue for " + name + " is full, dropping changes");
+            }
+        }
+        return queued;
+    }
+
+    public boolean accepts(String index) {
+        return indices.isEmpty() || indices.contains(index);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isReady() {
+        return state == State.READY;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHostName() {
+        return hostName;
+    }
+
+    /**
+     * @return the client, null until the connection is ready
+     */
+    public JestClient getClient() {
+        return state == State.READY ? client : null;
+    }
+
+    /**
+     * @return the indices in rollover mode by alias
+     */
+    public Map<String, ElasticSearchRollover> getRollovers() {
+        return rollovers;
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getRetried() {
+        return retried.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+}
@@ -2,192 +2,567 @@ package org.neo4j.elasticsearch;
 
 import io.searchbox.action.BulkableAction;
 import io.searchbox.client.JestClient;
-import io.searchbox.client.JestResult;
-import io.searchbox.client.JestResultHandler;
-import io.searchbox.core.Bulk;
 import io.searchbox.core.Delete;
 import io.searchbox.core.Index;
-import io.searchbox.core.Update;
+import io.searchbox.params.Parameters;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.event.LabelEntry;
 import org.neo4j.graphdb.event.PropertyEntry;
 import org.neo4j.graphdb.event.TransactionData;
 import org.neo4j.graphdb.event.TransactionEventHandler;
 
+import java.lang.reflect.Array;
 import java.util.*;
-import java.util.logging.Level;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 /**
+* The documents are versioned externally with the id of the transaction they were rendered from,
+* so ElasticSearch keeps the newest one whatever order the actions arrive in.
 * @author mh
 * @since 25.04.15
 */
-class ElasticSearchEventHandler implements TransactionEventHandler<Collection<BulkableAction>>, JestResultHandler<JestResult> {
-    private final JestClient client;
+class ElasticSearchEventHandler implements TransactionEventHandler<ElasticSearchCommit> {
+    private final List<ElasticSearchConnection> connections;
     private final static Logger logger = Logger.getLogger(ElasticSearchEventHandler.class.getName());
-    private final ElasticSearchIndexSettings indexSettings;
-    private final Set<String> indexLabels;
+    private final static ThreadLocal<ElasticSearchCommit> rendering = new ThreadLocal<>();
+    private final static ThreadLocal<AtomicLong> versions = new ThreadLocal<>();
+    final static String VERSION_TYPE = "external_gte";
+    private volatile ElasticSearchIndexSettings indexSettings;
     private boolean useAsyncJest = true;
+    private ElasticSearchReindexQueue reindexQueue;
+    private ElasticSearchCommitLog commitLog = new ElasticSearchCommitLog(0, 0, TimeUnit.MILLISECONDS);
+    private final ReadWriteLock reindexing = new ReentrantReadWriteLock();
+    private volatile Set<Long> committedDuringReindex;
 
     public ElasticSearchEventHandler(JestClient client, ElasticSearchIndexSettings indexSettings) {
-        this.client = client;
+        this(Collections.singletonList(new ElasticSearchConnection(client)), indexSettings);
+    }
+
+    public ElasticSearchEventHandler(List<ElasticSearchConnection> connections, ElasticSearchIndexSettings indexSettings) {
+        this.connections = connections;
+        this.indexSettings = indexSettings;
+    }
+
+    public ElasticSearchIndexSettings getIndexSettings() {
+        return indexSettings;
+    }
+
+    /**
+     * Replaces the index settings, transactions that already started rendering keep the settings they started with.
+     */
+    public void setIndexSettings(ElasticSearchIndexSettings indexSettings) {
         this.indexSettings = indexSettings;
-        this.indexLabels = indexSettings.getIndexSpec().keySet();
     }
 
     @Override
-    public Collection<BulkableAction> beforeCommit(TransactionData transactionData) throws Exception {
-        Map<IndexId, BulkableAction> actions = new HashMap<>(1000);
+    public ElasticSearchCommit beforeCommit(TransactionData transactionData) throws Exception {
+        ElasticSearchCommit commit = commitLog.begin();
+        rendering.set(commit);
+        versions.set(commit.getVersion());
+        try {
+            commit.collected(collect(transactionData));
+            return commit;
+        } finally {
+            rendering.remove();
+            versions.remove();
+        }
+    }
+
+    /**
+     * Collects the deletes of the transaction and the nodes it changed, each changed node is rendered once no matter
+     * how many of its labels and properties were touched.
+     */
+    private Collection<BulkableAction> collect(TransactionData transactionData) {
+        ElasticSearchIndexSettings settings = indexSettings;
+        Map<IndexId, BulkableAction> actions = new LinkedHashMap<>(1000);
+        Map<Long, Map<String, Object>> previous = previousKeyValues(transactionData, settings);
+        Map<Long, Node> changed = new LinkedHashMap<>();
 
         for (Node node : transactionData.createdNodes()) {
-            if (hasLabel(node)) actions.putAll(indexRequests(node));
+            if (hasLabel(node, settings)) changed.put(node.getId(), node);
         }
         for (LabelEntry labelEntry : transactionData.assignedLabels()) {
-            if (hasLabel(labelEntry)) {
+            if (hasLabel(labelEntry, settings)) {
                 if (transactionData.isDeleted(labelEntry.node())) {
-                    actions.putAll(deleteRequests(labelEntry.node()));
+                    actions.putAll(deleteRequests(labelEntry.node(), previous, settings));
                 } else {
-                    actions.putAll(indexRequests(labelEntry.node()));
+                    changed.put(labelEntry.node().getId(), labelEntry.node());
                 }
             }
         }
         for (LabelEntry labelEntry : transactionData.removedLabels()) {
-            if (hasLabel(labelEntry)) actions.putAll(deleteRequests(labelEntry.node(), labelEntry.label()));
+            if (hasLabel(labelEntry, settings)) actions.putAll(deleteRequests(labelEntry.node(), labelEntry.label(), previous, settings));
         }
         for (PropertyEntry<Node> propEntry : transactionData.assignedNodeProperties()) {
-            if (hasLabel(propEntry))
-                actions.putAll(indexRequests(propEntry.entity()));
+            if (hasLabel(propEntry, settings)) {
+                if (propEntry.previouslyCommitedValue() != null)
+                    actions.putAll(keyChangeRequests(propEntry.entity(), propEntry.key(), previous, settings));
+                changed.put(propEntry.entity().getId(), propEntry.entity());
+            }
         }
         for (PropertyEntry<Node> propEntry : transactionData.removedNodeProperties()) {
-            if (!transactionData.isDeleted(propEntry.entity()) && hasLabel(propEntry))
-                actions.putAll(updateRequests(propEntry.entity()));
+            if (!transactionData.isDeleted(propEntry.entity()) && hasLabel(propEntry, settings)) {
+                actions.putAll(keyChangeRequests(propEntry.entity(), propEntry.key(), previous, settings));
+                changed.put(propEntry.entity().getId(), propEntry.entity());
+            }
+        }
+        for (Node node : changed.values()) {
+            actions.putAll(indexRequests(node, settings));
+        }
+        if (!settings.getRelatedProperties().isEmpty()) {
+            invalidateRelated(transactionData, actions, settings);
         }
         return actions.isEmpty() ? Collections.<BulkableAction>emptyList() : actions.values();
     }
 
+    /**
+     * Finds the documents that copy properties of changed neighbours. The owners of created or deleted relationships
+     * are rendered right away, the neighbours of changed nodes are left to the reindex queue if there is one.
+     */
+    private void invalidateRelated(TransactionData transactionData, Map<IndexId, BulkableAction> actions, ElasticSearchIndexSettings settings) {
+        Map<Long, Node> dirty = new HashMap<>();
+        for (ElasticSearchRelatedProperty related : settings.getRelatedProperties()) {
+            for (Relationship rel : transactionData.createdRelationships()) {
+                invalidateOwner(transactionData, related.owner(rel), dirty, settings);
+            }
+            for (Relationship rel : transactionData.deletedRelationships()) {
+                invalidateOwner(transactionData, related.owner(rel), dirty, settings);
+            }
+            for (PropertyEntry<Node> propEntry : transactionData.assignedNodeProperties()) {
+                if (propEntry.key().equals(related.getProperty()) && propEntry.entity().hasLabel(related.getLabel()))
+                    invalidateNeighbours(propEntry.entity(), related, dirty, settings);
+            }
+            for (PropertyEntry<Node> propEntry : transactionData.removedNodeProperties()) {
+                if (!transactionData.isDeleted(propEntry.entity()) && propEntry.key().equals(related.getProperty())
+                        && propEntry.entity().hasLabel(related.getLabel()))
+                    invalidateNeighbours(propEntry.entity(), related, dirty, settings);
+            }
+            for (LabelEntry labelEntry : transactionData.assignedLabels()) {
+                if (!transactionData.isDeleted(labelEntry.node()) && labelEntry.label().name().equals(related.getLabel().name()))
+                    invalidateNeighbours(labelEntry.node(), related, dirty, settings);
+            }
+            for (LabelEntry labelEntry : transactionData.removedLabels()) {
+                if (!transactionData.isDeleted(labelEntry.node()) && labelEntry.label().name().equals(related.getLabel().name()))
+                    invalidateNeighbours(labelEntry.node(), related, dirty, settings);
+            }
+        }
+        for (Node node : dirty.values()) {
+            if (!isRendered(node, actions, settings)) actions.putAll(indexRequests(node, settings));
+        }
+    }
+
+    private void invalidateOwner(TransactionData transactionData, Node owner, Map<Long, Node> dirty, ElasticSearchIndexSettings settings) {
+        if (owner != null && !transactionData.isDeleted(owner) && hasLabel(owner, settings)) dirty.put(owner.getId(), owner);
+    }
+
+    private void invalidateNeighbours(Node neighbour, ElasticSearchRelatedProperty related, Map<Long, Node> dirty, ElasticSearchIndexSettings settings) {
+        if (reindexQueue != null) {
+            reindexQueue.invalidateNeighbours(neighbour.getId(), related);
+            return;
+        }
+        for (Node owner : related.owners(neighbour)) {
+            if (hasLabel(owner, settings)) dirty.put(owner.getId(), owner);
+        }
+    }
+
+    private boolean isRendered(Node node, Map<IndexId, BulkableAction> actions, ElasticSearchIndexSettings settings) {
+        for (Label l: node.getLabels()) {
+            if (!settings.getIndexLabels().contains(l.name())) continue;
+            for (ElasticSearchIndexSpec spec: settings.getIndexSpec().get(l.name())) {
+                if (!actions.containsKey(new IndexId(spec.getIndexName(), id(node, spec), routing(node, spec)))) return false;
+            }
+        }
+        return true;
+    }
+
     public void setUseAsyncJest(boolean useAsyncJest) {
         this.useAsyncJest = useAsyncJest;
     }
 
+    public void setReindexQueue(ElasticSearchReindexQueue reindexQueue) {
+        this.reindexQueue = reindexQueue;
+    }
+
+    public void setCommitLog(ElasticSearchCommitLog commitLog) {
+        this.commitLog = commitLog;
+    }
+
     @Override
-    public void afterCommit(TransactionData transactionData, Collection<BulkableAction> actions) {
-        if (actions.isEmpty()) return;
+    public void afterCommit(TransactionData transactionData, ElasticSearchCommit commit) {
+        long start = System.nanoTime();
+        commit.getVersion().set(transactionData.getTransactionId());
+        reindexing.readLock().lock();
         try {
-            Bulk bulk = new Bulk.Builder()
-                    .addAction(actions).build();
-            if (useAsyncJest) {
-                client.executeAsync(bulk, this);
-            }
-            else {
-                client.execute(bulk);
+            Set<Long> committed = committedDuringReindex;
+            if (committed != null) changedNodes(transactionData, committed);
+            if (!submit(commit.getActions())) overflow(transactionData, commit.getActions());
+        } finally {
+            reindexing.readLock().unlock();
+        }
+        commit.enqueued(System.nanoTime() - start);
+        commitLog.end(transactionData, commit);
+    }
+
+    /**
+     * Leaves the changes of a commit that didn't fit in a queue to the reindex queue. The changed nodes are rendered
+     * again from their state then, the deletes are kept as they are, as their nodes or keys may be gone.
+     */
+    private void overflow(TransactionData transactionData, Collection<BulkableAction> actions) {
+        Set<Long> nodeIds = new HashSet<>();
+        changedNodes(transactionData, nodeIds);
+        for (Long nodeId : nodeIds) reindexQueue.invalidate(nodeId);
+        for (BulkableAction action : actions) {
+            if (action instanceof Delete) reindexQueue.tombstone(action);
+        }
+    }
+
+    private static void changedNodes(TransactionData transactionData, Set<Long> nodeIds) {
+        for (Node node : transactionData.createdNodes()) nodeIds.add(node.getId());
+        for (Node node : transactionData.deletedNodes()) nodeIds.add(node.getId());
+        for (LabelEntry labelEntry : transactionData.assignedLabels()) nodeIds.add(labelEntry.node().getId());
+        for (LabelEntry labelEntry : transactionData.removedLabels()) nodeIds.add(labelEntry.node().getId());
+        for (PropertyEntry<Node> propEntry : transactionData.assignedNodeProperties()) nodeIds.add(propEntry.entity().getId());
+        for (PropertyEntry<Node> propEntry : transactionData.removedNodeProperties()) nodeIds.add(propEntry.entity().getId());
+        for (Relationship rel : transactionData.createdRelationships()) Collections.addAll(nodeIds, rel.getStartNodeId(), rel.getEndNodeId());
+        for (Relationship rel : transactionData.deletedRelationships()) Collections.addAll(nodeIds, rel.getStartNodeId(), rel.getEndNodeId());
+    }
+
+    /**
+     * Starts a re-render outside of the commit path, from now on the nodes changed by committed transactions are
+     * recorded until {@link #submitReindexed(Map, Set)}.
+     */
+    void beginReindex() {
+        reindexing.writeLock().lock();
+        try {
+            committedDuringReindex = ConcurrentHashMap.newKeySet();
+        } finally {
+            reindexing.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Submits the re-rendered actions of the nodes no transaction changed since {@link #beginReindex()}.
+     * The others may have been rendered from a state older than the one the commit already enqueued, their version
+     * would make ElasticSearch reject them anyway, so they are rendered again rather than sent for nothing.
+     * If the actions don't fit in a queue, all of the nodes are to be rendered again.
+     * @param rendered the actions by node id
+     * @param stale receives the ids of the nodes to be rendered again
+     * @return false if the actions didn't fit in a queue
+     */
+    boolean submitReindexed(Map<Long, Collection<? extends BulkableAction>> rendered, Set<Long> stale) {
+        reindexing.writeLock().lock();
+        try {
+            Collection<BulkableAction> actions = new ArrayList<>(rendered.size());
+            for (Map.Entry<Long, Collection<? extends BulkableAction>> entry : rendered.entrySet()) {
+                if (committedDuringReindex != null && committedDuringReindex.contains(entry.getKey())) stale.add(entry.getKey());
+                else actions.addAll(entry.getValue());
             }
-        } catch (Exception e) {
-            logger.log(Level.WARNING, "Error updating ElasticSearch ", e);
+            committedDuringReindex = null;
+            if (actions.isEmpty() || submit(actions)) return true;
+            stale.addAll(rendered.keySet());
+            return false;
+        } finally {
+            reindexing.writeLock().unlock();
         }
     }
 
-    private boolean hasLabel(Node node) {
+    /**
+     * Renders outside of a transaction, the documents get the given version, the last transaction id the render can see.
+     */
+    <T> T versioned(long version, Supplier<T> render) {
+        versions.set(new AtomicLong(version));
+        try {
+            return render.get();
+        } finally {
+            versions.remove();
+        }
+    }
+
+    /**
+     * Hands the same rendered actions to every cluster, each one picks the indices it receives.
+     * With a reindex queue the actions that don't fit in the queue of a cluster are left to the caller, else they are dropped.
+     * @return false if some actions didn't fit, they are handed to all clusters again later, the versions make that harmless
+     */
+    boolean submit(Collection<BulkableAction> actions) {
+        boolean queued = true;
+        for (ElasticSearchConnection connection : connections) {
+            queued &= connection.submit(actions, useAsyncJest, reindexQueue != null);
+        }
+        return queued;
+    }
+
+    boolean isReady() {
+        for (ElasticSearchConnection connection : connections) {
+            if (connection.isReady()) return true;
+        }
+        return false;
+    }
+
+    boolean hasLabel(Node node) {
+        return hasLabel(node, indexSettings);
+    }
+
+    boolean hasLabel(Node node, ElasticSearchIndexSettings settings) {
         for (Label l: node.getLabels()) {
-            if (indexLabels.contains(l.name())) return true;
+            if (settings.getIndexLabels().contains(l.name())) return true;
         }
         return false;
     }
 
-    private boolean hasLabel(LabelEntry labelEntry) {
-        return indexLabels.contains(labelEntry.label().name());
+    private boolean hasLabel(LabelEntry labelEntry, ElasticSearchIndexSettings settings) {
+        return settings.getIndexLabels().contains(labelEntry.label().name());
     }
 
-    private boolean hasLabel(PropertyEntry<Node> propEntry) {
-        return hasLabel(propEntry.entity());
+    private boolean hasLabel(PropertyEntry<Node> propEntry, ElasticSearchIndexSettings settings) {
+        return hasLabel(propEntry.entity(), settings);
     }
     
-    private Map<IndexId, Index> indexRequests(Node node) {
+    Map<IndexId, Index> indexRequests(Node node) {
+        return indexRequests(node, indexSettings);
+    }
+
+    Map<IndexId, Index> indexRequests(Node node, ElasticSearchIndexSettings settings) {
         HashMap<IndexId, Index> reqs = new HashMap<>();
 
         for (Label l: node.getLabels()) {
-            if (!indexLabels.contains(l.name())) continue;
-
-            for (ElasticSearchIndexSpec spec: indexSettings.getIndexSpec().get(l.name())) {
-                String id = id(node), indexName = spec.getIndexName();
-                reqs.put(new IndexId(indexName, id), new Index.Builder(nodeToJson(node, spec.getProperties()))
-                .type(l.name())
-                .index(indexName)
-                .id(id)
-                .build());
-            }
+            reqs.putAll(indexRequests(node, l.name(), settings));
+        }
+        return reqs;
+    }
+
+    /**
+     * @return the documents of the node for some of the indices only
+     */
+    Map<IndexId, Index> indexRequests(Node node, Set<String> indices) {
+        ElasticSearchIndexSettings settings = indexSettings;
+        HashMap<IndexId, Index> reqs = new HashMap<>();
+
+        for (Label l: node.getLabels()) {
+            reqs.putAll(indexRequests(node, l.name(), settings, indices));
+        }
+        return reqs;
+    }
+
+    /**
+     * @return the documents of the node for the indices of one of its labels
+     */
+    Map<IndexId, Index> indexRequests(Node node, String label, ElasticSearchIndexSettings settings) {
+        return indexRequests(node, label, settings, null);
+    }
+
+    /**
+     * @param indices the indices to render, all if null
+     */
+    private Map<IndexId, Index> indexRequests(Node node, String label, ElasticSearchIndexSettings settings, Set<String> indices) {
+        if (!settings.getIndexLabels().contains(label)) return Collections.emptyMap();
+
+        HashMap<IndexId, Index> reqs = new HashMap<>();
+        for (ElasticSearchIndexSpec spec: settings.getIndexSpec().get(label)) {
+            if (indices != null && !indices.contains(spec.getIndexName())) continue;
+            String id = id(node, spec), routing = routing(node, spec), indexName = spec.getIndexName();
+            if (id == null) continue;
+            reqs.put(new IndexId(indexName, id, routing), new Index.Builder(nodeToJson(node, label, spec, settings))
+            .type(label)
+            .index(indexName)
+            .id(id)
+            .setParameter(parameters(routing))
+            .build());
         }
         return reqs;
     }
 
-    private Map<IndexId, Delete> deleteRequests(Node node) {
+    private Map<IndexId, Delete> deleteRequests(Node node, Map<Long, Map<String, Object>> previous, ElasticSearchIndexSettings settings) {
         HashMap<IndexId, Delete> reqs = new HashMap<>();
 
     	for (Label l: node.getLabels()) {
-    		if (!indexLabels.contains(l.name())) continue;
-    		for (ElasticSearchIndexSpec spec: indexSettings.getIndexSpec().get(l.name())) {
-    		    String id = id(node), indexName = spec.getIndexName();
-    			reqs.put(new IndexId(indexName, id),
-    			         new Delete.Builder(id).index(indexName).build());
-    		}
+    		reqs.putAll(deleteRequests(node, l, previous, settings));
     	}
     	return reqs;
     }
     
-    private Map<IndexId, Delete> deleteRequests(Node node, Label label) {
+    private Map<IndexId, Delete> deleteRequests(Node node, Label label, Map<Long, Map<String, Object>> previous, ElasticSearchIndexSettings settings) {
         HashMap<IndexId, Delete> reqs = new HashMap<>();
 
-        if (indexLabels.contains(label.name())) {
-            for (ElasticSearchIndexSpec spec: indexSettings.getIndexSpec().get(label.name())) {
-                String id = id(node), indexName = spec.getIndexName();
-                reqs.put(new IndexId(indexName, id),
-                         new Delete.Builder(id)
-                                   .index(indexName)
-                                   .type(label.name())
-                                   .build());
+        if (settings.getIndexLabels().contains(label.name())) {
+            for (ElasticSearchIndexSpec spec: settings.getIndexSpec().get(label.name())) {
+                String id = previousId(node, spec, previous), routing = previousRouting(node, spec, previous);
+                if (id == null) continue;
+                reqs.put(new IndexId(spec.getIndexName(), id, routing), deleteRequest(spec, label, id, routing));
             }
         }
         return reqs;
     }
-    
-    private Map<IndexId, Update> updateRequests(Node node) {
-    	HashMap<IndexId, Update> reqs = new HashMap<>();
-    	for (Label l: node.getLabels()) {
-    		if (!indexLabels.contains(l.name())) continue;
-
-    		for (ElasticSearchIndexSpec spec: indexSettings.getIndexSpec().get(l.name())) {
-    		    String id = id(node), indexName = spec.getIndexName();
-    			reqs.put(new IndexId(indexName, id),
-    			        new Update.Builder(nodeToJson(node, spec.getProperties()))
-                    			  .type(l.name())
-                    			  .index(spec.getIndexName())
-                    			  .id(id(node))
-                    			  .build());
-    		}
-    	}
-    	return reqs;
+
+    /**
+     * Deletes the documents that were stored under the previous value of an id or routing property.
+     */
+    private Map<IndexId, Delete> keyChangeRequests(Node node, String key, Map<Long, Map<String, Object>> previous, ElasticSearchIndexSettings settings) {
+        HashMap<IndexId, Delete> reqs = new HashMap<>();
+        if (!previous.containsKey(node.getId())) return reqs;
+
+        for (Label l: node.getLabels()) {
+            if (!settings.getIndexLabels().contains(l.name())) continue;
+
+            for (ElasticSearchIndexSpec spec: settings.getIndexSpec().get(l.name())) {
+                if (!key.equals(spec.getIdProperty()) && !key.equals(spec.getRoutingProperty())) continue;
+                String id = previousId(node, spec, previous), routing = previousRouting(node, spec, previous);
+                if (id == null) continue;
+                if (id.equals(id(node, spec)) && Objects.equals(routing, routing(node, spec))) continue;
+                reqs.put(new IndexId(spec.getIndexName(), id, routing), deleteRequest(spec, l, id, routing));
+            }
+        }
+        return reqs;
+    }
+
+    private Delete deleteRequest(ElasticSearchIndexSpec spec, Label label, String id, String routing) {
+        return new Delete.Builder(id)
+                .index(spec.getIndexName())
+                .type(label.name())
+                .setParameter(parameters(routing))
+                .build();
+    }
+
+    /**
+     * @return the routing and, when rendering for a transaction, the version of the document. The version is
+     * only read when the bulk request is built, after the transaction id was set in <code>afterCommit</code>.
+     */
+    private static Map<String, Object> parameters(String routing) {
+        AtomicLong version = versions.get();
+        if (version == null) {
+            return routing == null ? Collections.<String, Object>emptyMap() : Collections.<String, Object>singletonMap(Parameters.ROUTING, routing);
+        }
+        Map<String, Object> parameters = new HashMap<>(4);
+        if (routing != null) parameters.put(Parameters.ROUTING, routing);
+        parameters.put(Parameters.VERSION, version);
+        parameters.put(Parameters.VERSION_TYPE, VERSION_TYPE);
+        return parameters;
     }
 
     private String id(Node node) {
         return String.valueOf(node.getId());
     }
 
-    private Map nodeToJson(Node node, Set<String> properties) {
+    /**
+     * @return the document id of the node in the index, null if the node lacks the id property of the index
+     */
+    private String id(Node node, ElasticSearchIndexSpec spec) {
+        if (spec.getIdProperty() == null) return id(node);
+        return node.hasProperty(spec.getIdProperty()) ? key(node.getProperty(spec.getIdProperty())) : null;
+    }
+
+    private String routing(Node node, ElasticSearchIndexSpec spec) {
+        if (spec.getRoutingProperty() == null || !node.hasProperty(spec.getRoutingProperty())) return null;
+        return key(node.getProperty(spec.getRoutingProperty()));
+    }
+
+    /**
+     * @return the id or routing for a property value, the elements of an array joined by commas
+     */
+    static String key(Object value) {
+        if (!value.getClass().isArray()) return String.valueOf(value);
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < Array.getLength(value); i++) {
+            if (i > 0) key.append(',');
+            key.append(Array.get(value, i));
+        }
+        return key.toString();
+    }
+
+    private String previousId(Node node, ElasticSearchIndexSpec spec, Map<Long, Map<String, Object>> previous) {
+        if (spec.getIdProperty() == null) return id(node);
+        Map<String, Object> values = previous.get(node.getId());
+        if (values != null && values.containsKey(spec.getIdProperty())) {
+            Object value = values.get(spec.getIdProperty());
+            return value == null ? null : key(value);
+        }
+        return id(node, spec);
+    }
+
+    private String previousRouting(Node node, ElasticSearchIndexSpec spec, Map<Long, Map<String, Object>> previous) {
+        if (spec.getRoutingProperty() == null) return null;
+        Map<String, Object> values = previous.get(node.getId());
+        if (values != null && values.containsKey(spec.getRoutingProperty())) {
+            Object value = values.get(spec.getRoutingProperty());
+            return value == null ? null : key(value);
+        }
+        return routing(node, spec);
+    }
+
+    /**
+     * Collects the committed values of the id and routing properties that change in the transaction,
+     * deleted nodes can't be read anymore and changed keys must be deleted under their old value.
+     */
+    private Map<Long, Map<String, Object>> previousKeyValues(TransactionData transactionData, ElasticSearchIndexSettings settings) {
+        Set<String> keyProperties = settings.getKeyProperties();
+        if (keyProperties.isEmpty()) return Collections.emptyMap();
+
+        Map<Long, Map<String, Object>> previous = new HashMap<>();
+        for (PropertyEntry<Node> propEntry : transactionData.assignedNodeProperties()) {
+            if (keyProperties.contains(propEntry.key()) && propEntry.previouslyCommitedValue() != null)
+                previous.computeIfAbsent(propEntry.entity().getId(), id -> new HashMap<>()).put(propEntry.key(), propEntry.previouslyCommitedValue());
+        }
+        for (PropertyEntry<Node> propEntry : transactionData.removedNodeProperties()) {
+            if (keyProperties.contains(propEntry.key()))
+                previous.computeIfAbsent(propEntry.entity().getId(), id -> new HashMap<>()).put(propEntry.key(), propEntry.previouslyCommitedValue());
+        }
+        return previous;
+    }
+
+    /**
+     * Renders the document of the node, accounting the time to the commit being rendered on this thread, if any,
+     * and the sizes and field costs too if the commit is detailed.
+     */
+    private Map nodeToJson(Node node, String label, ElasticSearchIndexSpec spec, ElasticSearchIndexSettings settings) {
+        ElasticSearchCommit commit = rendering.get();
+        boolean detailed = commit != null && commit.isDetailed();
+        long start = commit == null ? 0 : System.nanoTime(), bytes = 0;
         Map<String,Object> json = new LinkedHashMap<>();
         
-        if(indexSettings.getIncludeIDField()) 
+        if(settings.getIncludeIDField()) 
         	json.put("id", id(node));
         
-        if(indexSettings.getIncludeLabelsField()) 
+        if(settings.getIncludeLabelsField()) 
         	json.put("labels", labels(node));
 
-        for (String prop : properties) {
+        for (String prop : spec.getProperties()) {
             if(node.hasProperty(prop)){
                 Object value = node.getProperty(prop);
                 json.put(prop, value);
+                if (detailed) {
+                    long size = ElasticSearchCommit.size(value);
+                    bytes += size + prop.length() + 4;
+                    commit.field(prop, 0, size);
+                }
             }
         }
+
+        for (ElasticSearchRelatedProperty related : spec.getRelatedProperties()) {
+            long relatedStart = detailed ? System.nanoTime() : 0;
+            List<Object> values = related.values(node);
+            if (!values.isEmpty()) {
+                json.put(related.getFieldName(), values);
+            }
+            if (detailed) {
+                long size = values.isEmpty() ? 0 : ElasticSearchCommit.size(values);
+                bytes += size == 0 ? 0 : size + related.getFieldName().length() + 4;
+                commit.field(related.getFieldName(), System.nanoTime() - relatedStart, size);
+            }
+        }
+        if (detailed) {
+            bytes += 2;
+            if (json.containsKey("id")) bytes += ElasticSearchCommit.size(json.get("id")) + 6;
+            if (json.containsKey("labels")) bytes += ElasticSearchCommit.size(json.get("labels")) + 10;
+        }
+        if (commit != null) commit.rendered(label, System.nanoTime() - start, bytes);
         return json;
     }
     
@@ -200,28 +575,16 @@ class ElasticSearchEventHandler implements TransactionEventHandler<Collection<Bu
     }
 
     @Override
-    public void afterRollback(TransactionData transactionData, Collection<BulkableAction> actions) {
+    public void afterRollback(TransactionData transactionData, ElasticSearchCommit commit) {
     }
 
-    @Override
-    public void completed(JestResult jestResult) {
-        if (jestResult.isSucceeded() && jestResult.getErrorMessage() == null) {
-            logger.fine("ElasticSearch Update Success");
-        } else {
-            logger.severe("ElasticSearch Update Failed: " + jestResult.getErrorMessage());
-        }
-    }
-
-    @Override
-    public void failed(Exception e) {
-        logger.log(Level.WARNING,"Problem Updating ElasticSearch ",e);
-    }
     
     private class IndexId {
-        final String indexName, id;
-        public IndexId(String indexName, String id) {
+        final String indexName, id, routing;
+        public IndexId(String indexName, String id, String routing) {
             this.indexName = indexName;
             this.id = id;
+            this.routing = routing;
         }
 
         @Override
@@ -232,6 +595,7 @@ class ElasticSearchEventHandler implements TransactionEventHandler<Collection<Bu
             result = prime * result + ((id == null) ? 0 : id.hashCode());
             result = prime * result
                     + ((indexName == null) ? 0 : indexName.hashCode());
+            result = prime * result + ((routing == null) ? 0 : routing.hashCode());
             return result;
         }
 
@@ -256,6 +620,11 @@ class ElasticSearchEventHandler implements TransactionEventHandler<Collection<Bu
                     return false;
             } else if (!indexName.equals(other.indexName))
                 return false;
+            if (routing == null) {
+                if (other.routing != null)
+                    return false;
+            } else if (!routing.equals(other.routing))
+                return false;
             return true;
         }
         
@@ -265,7 +634,7 @@ class ElasticSearchEventHandler implements TransactionEventHandler<Collection<Bu
 
         @Override
         public String toString() {
-            return "IndexId [indexName=" + indexName + ", id=" + id + "]";
+            return "IndexId [indexName=" + indexName + ", id=" + id + ", routing=" + routing + "]";
         }
     }
 }
@@ -1,12 +1,30 @@
 package org.neo4j.elasticsearch;
 
+import com.google.gson.JsonObject;
 import io.searchbox.client.JestClient;
-import io.searchbox.client.JestClientFactory;
 
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.impl.store.id.IdGeneratorFactory;
+import org.neo4j.kernel.impl.store.id.IdType;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
 import org.neo4j.kernel.lifecycle.LifecycleAdapter;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.text.ParseException;
 
@@ -17,14 +35,29 @@ import java.text.ParseException;
 public class ElasticSearchExtension extends LifecycleAdapter {
     private final GraphDatabaseService gds;
     private final static Logger logger = Logger.getLogger(ElasticSearchExtension.class.getName());
-    private final String hostName;
     private boolean enabled = true;
-    private final boolean discovery;
+    private final List<ElasticSearchConnection> connections;
     private ElasticSearchEventHandler handler;
-    private JestClient client;
     private ElasticSearchIndexSettings indexSettings;
+    private ElasticSearchReindexQueue reindexQueue;
+    private final int reindexBatchSize;
+    private final long reindexInterval;
+    private final int backfillRate;
+    private final boolean indexTemplates;
+    private final ElasticSearchCommitLog commitLog;
+    private ExecutorService backfillExecutor;
+    private Path snapshotDirectory;
 
     public ElasticSearchExtension(GraphDatabaseService gds, String hostName, String indexSpec, Boolean discovery, Boolean includeIDField, Boolean includeLabelsField) {
+        this(gds, Collections.singletonList(new ElasticSearchConnection(ElasticSearchConnection.DEFAULT_NAME, hostName, discovery,
+                        Collections.<String>emptySet(), 1000, 10000)),
+                indexSpec, includeIDField, includeLabelsField, 500, 1000L, 1000, true,
+                new ElasticSearchCommitLog(500, 1000, TimeUnit.MILLISECONDS, 100));
+    }
+
+    ElasticSearchExtension(GraphDatabaseService gds, List<ElasticSearchConnection> connections, String indexSpec, Boolean includeIDField, Boolean includeLabelsField,
+                           Integer reindexBatchSize, Long reindexInterval, Integer backfillRate, Boolean indexTemplates,
+                           ElasticSearchCommitLog commitLog) {
         Map iSpec;
         try {
             iSpec = ElasticSearchIndexSpecParser.parseIndexSpec(indexSpec);
@@ -33,37 +66,250 @@ public class ElasticSearchExtension extends LifecycleAdapter {
                 enabled = false;
             }
             this.indexSettings = new ElasticSearchIndexSettings(iSpec, includeIDField, includeLabelsField);
+            this.indexSettings.setIndexSpecSource(indexSpec);
         } catch (ParseException e) {
-            logger.severe("ElasticSearch Integration: Can't define index twice");
+            logger.severe("ElasticSearch Integration: Can't define index twice or unknown option in " + e.getMessage());
+            enabled = false;
+        }
+        if (connections.isEmpty()) {
+            logger.severe("ElasticSearch Integration: neither elasticsearch.host_name nor elasticsearch.targets configured");
             enabled = false;
         }
-        logger.info("Elasticsearch Integration: Running " + hostName + " - " + indexSpec);
+        for (ElasticSearchConnection connection : connections) {
+            logger.info("Elasticsearch Integration: Running " + connection.getName() + " " + connection.getHostName() + " - " + indexSpec);
+        }
         this.gds = gds;
-        this.hostName = hostName;
-        this.discovery = discovery;
+        this.connections = connections;
+        this.reindexBatchSize = reindexBatchSize;
+        this.reindexInterval = reindexInterval;
+        this.backfillRate = backfillRate;
+        this.indexTemplates = indexTemplates;
+        this.commitLog = commitLog;
     }
 
     @Override
     public void init() throws Throwable {
         if (!enabled) return;
 
-        client = getJestClient(hostName, discovery);
-        handler = new ElasticSearchEventHandler(client, indexSettings);
+        handler = new ElasticSearchEventHandler(connections, indexSettings);
+        reindexQueue = new ElasticSearchReindexQueue(gds, handler, reindexBatchSize, reindexInterval);
+        handler.setReindexQueue(reindexQueue);
+        handler.setCommitLog(commitLog);
+        reindexQueue.start();
+        backfillExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "neo4j-elasticsearch-backfill");
+            thread.setDaemon(true);
+            return thread;
+        });
         gds.registerTransactionEventHandler(handler);
+        for (ElasticSearchConnection connection : connections) {
+            if (indexTemplates) connection.setTemplates(ElasticSearchIndexTemplates.templates(indexSettings));
+            connection.setRollovers(ElasticSearchRollover.conditions(indexSettings), this::highestNodeId);
+            connection.start();
+        }
         logger.info("Connecting to ElasticSearch");
     }
 
+    /**
+     * @param snapshotDirectory the directory snapshots are written under, null to disable snapshots
+     */
+    public void setSnapshotDirectory(String snapshotDirectory) {
+        this.snapshotDirectory = snapshotDirectory == null ? null : Paths.get(snapshotDirectory).toAbsolutePath().normalize();
+    }
+
+    /**
+     * @return the highest node id in use, -1 if unknown
+     */
+    private long highestNodeId() {
+        if (!(gds instanceof GraphDatabaseAPI)) return -1;
+        return ((GraphDatabaseAPI) gds).getDependencyResolver().resolveDependency(IdGeneratorFactory.class).get(IdType.NODE).getHighestPossibleIdInUse();
+    }
+
+    public boolean isEnabled() {
+        return enabled && handler != null;
+    }
+
+    /**
+     * @return the index settings of the running extension, including reloads
+     */
+    ElasticSearchIndexSettings getIndexSettings() {
+        return handler.getIndexSettings();
+    }
+
+    /**
+     * @return the client of the first ready cluster that receives the index
+     */
+    JestClient getClient(String index) {
+        List<String> states = new ArrayList<>();
+        for (ElasticSearchConnection connection : connections) {
+            if (!connection.accepts(index)) continue;
+            JestClient client = connection.getClient();
+            if (client != null) return client;
+            states.add(connection.getName() + " is " + connection.getState());
+        }
+        throw new IllegalStateException("ElasticSearch Integration: no cluster ready for " + index + (states.isEmpty() ? "" : ", " + states));
+    }
+
+    public static class Status {
+        public final String name;
+        public final String host;
+        public final String state;
+        public final long queued;
+        public final long sent;
+        public final long retried;
+        public final long failed;
+        public final long dropped;
+        public final long reindexPending;
+
+        public Status(String name, String host, String state, long queued, long sent, long retried, long failed, long dropped, long reindexPending) {
+            this.name = name;
+            this.host = host;
+            this.state = state;
+            this.queued = queued;
+            this.sent = sent;
+            this.retried = retried;
+            this.failed = failed;
+            this.dropped = dropped;
+            this.reindexPending = reindexPending;
+        }
+    }
+
+    /**
+     * @return one status per cluster
+     */
+    public List<Status> getStatus() {
+        List<Status> status = new ArrayList<>(connections.size());
+        for (ElasticSearchConnection connection : connections) {
+            status.add(new Status(connection.getName(), connection.getHostName(), connection.getState().name(),
+                    connection.getQueued(), connection.getSent(), connection.getRetried(), connection.getFailed(),
+                    connection.getDropped(), reindexQueue.size()));
+        }
+        return status;
+    }
+
+    public static class IndexChange {
+        public final String index;
+        public final String label;
+        public final String change;
+        public final boolean backfill;
+
+        public IndexChange(String index, String label, String change, boolean backfill) {
+            this.index = index;
+            this.label = label;
+            this.change = change;
+            this.backfill = backfill;
+        }
+    }
+
+    /**
+     * Replaces the index spec of the running extension. Removed indices get no further writes from the next
+     * transaction on, labels of added or extended indices are backfilled in the background.
+     * The id and routing properties of an existing index can't change, its documents are stored under the old keys.
+     */
+    public synchronized List<IndexChange> reloadIndexSpec(String indexSpec) throws ParseException {
+        Map<String, List<ElasticSearchIndexSpec>> newSpec = ElasticSearchIndexSpecParser.parseIndexSpec(indexSpec);
+        if (newSpec.isEmpty()) {
+            throw new ParseException("syntax error in index_spec: " + indexSpec, 0);
+        }
+        ElasticSearchIndexSettings oldSettings = handler.getIndexSettings();
+        ElasticSearchIndexSettings newSettings = new ElasticSearchIndexSettings(newSpec,
+                oldSettings.getIncludeIDField(), oldSettings.getIncludeLabelsField());
+        newSettings.setIndexSpecSource(indexSpec);
+
+        List<IndexChange> changes = new ArrayList<>();
+        Map<String, Set<String>> backfillIndices = new LinkedHashMap<>();
+        for (Map.Entry<String, List<ElasticSearchIndexSpec>> entry : newSpec.entrySet()) {
+            String label = entry.getKey();
+            for (ElasticSearchIndexSpec spec : entry.getValue()) {
+                ElasticSearchIndexSpec old = find(oldSettings.getIndexSpec(), label, spec.getIndexName());
+                if (old != null && (!Objects.equals(old.getIdProperty(), spec.getIdProperty())
+                        || !Objects.equals(old.getRoutingProperty(), spec.getRoutingProperty()))) {
+                    throw new ParseException("can't change the id or routing of index " + spec.getIndexName()
+                            + " on reload, add it under a new name instead", 0);
+                }
+                String change = old == null ? "added"
+                        : old.covers(spec) && spec.covers(old) && old.getFieldTypes().equals(spec.getFieldTypes())
+                          && Objects.equals(old.getRollover(), spec.getRollover()) ? "unchanged" : "changed";
+                boolean backfill = old == null || !old.covers(spec);
+                if (backfill) backfillIndices.computeIfAbsent(label, l -> new LinkedHashSet<>()).add(spec.getIndexName());
+                changes.add(new IndexChange(spec.getIndexName(), label, change, backfill));
+            }
+        }
+        for (Map.Entry<String, List<ElasticSearchIndexSpec>> entry : oldSettings.getIndexSpec().entrySet()) {
+            for (ElasticSearchIndexSpec spec : entry.getValue()) {
+                if (find(newSpec, entry.getKey(), spec.getIndexName()) == null) {
+                    changes.add(new IndexChange(spec.getIndexName(), entry.getKey(), "removed", false));
+                }
+            }
+        }
+
+        if (indexTemplates) {
+            Map<String, JsonObject> templates = ElasticSearchIndexTemplates.templates(newSettings);
+            for (ElasticSearchConnection connection : connections) {
+                connection.setTemplates(templates);
+            }
+        }
+        for (ElasticSearchConnection connection : connections) {
+            connection.setRollovers(ElasticSearchRollover.conditions(newSettings), this::highestNodeId);
+        }
+        handler.setIndexSettings(newSettings);
+        this.indexSettings = newSettings;
+        logger.info("Elasticsearch Integration: Reloaded " + indexSpec);
+        if (!backfillIndices.isEmpty()) {
+            backfillExecutor.submit(new ElasticSearchBackfill(gds, reindexQueue, backfillIndices, backfillRate));
+        }
+        return changes;
+    }
+
+    private static ElasticSearchIndexSpec find(Map<String, List<ElasticSearchIndexSpec>> indexSpec, String label, String indexName) {
+        for (ElasticSearchIndexSpec spec : indexSpec.getOrDefault(label, Collections.<ElasticSearchIndexSpec>emptyList())) {
+            if (spec.getIndexName().equals(indexName)) return spec;
+        }
+        return null;
+    }
+
+    /**
+     * @return the directory of a snapshot, relative ones are resolved against <code>elasticsearch.snapshot_dir</code>
+     * @throws IllegalArgumentException if snapshots are disabled or the directory is not within the snapshot directory
+     */
+    public Path snapshotDirectory(String directory) throws IOException {
+        if (snapshotDirectory == null) {
+            throw new IllegalArgumentException("snapshots are disabled, set elasticsearch.snapshot_dir to enable them");
+        }
+        Path resolved = snapshotDirectory.resolve(directory).normalize();
+        if (!resolved.startsWith(snapshotDirectory) || (Files.exists(resolved) && Files.exists(snapshotDirectory)
+                && !resolved.toRealPath().startsWith(snapshotDirectory.toRealPath()))) {
+            throw new IllegalArgumentException(directory + " is not within elasticsearch.snapshot_dir " + snapshotDirectory);
+        }
+        return resolved;
+    }
+
+    /**
+     * Writes the documents of all indexed nodes to <code>directory</code>, see {@link ElasticSearchSnapshot},
+     * with at most one shard per available processor.
+     * Indices in rollover mode use the backing indices of the first cluster that looked them up.
+     */
+    public ElasticSearchSnapshot.Manifest snapshot(String directory, int shards, boolean compress) throws IOException, InterruptedException {
+        Path path = snapshotDirectory(directory);
+        shards = Math.max(1, Math.min(shards, Runtime.getRuntime().availableProcessors()));
+        Map<String, ElasticSearchRollover> rollovers = new HashMap<>();
+        for (ElasticSearchConnection connection : connections) {
+            for (Map.Entry<String, ElasticSearchRollover> entry : connection.getRollovers().entrySet()) {
+                rollovers.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+        return new ElasticSearchSnapshot((GraphDatabaseAPI) gds, handler, path, shards, compress, rollovers).export();
+    }
+
     @Override
     public void shutdown() throws Throwable {
         if (!enabled) return;
         gds.unregisterTransactionEventHandler(handler);
-        client.shutdownClient();
+        backfillExecutor.shutdownNow();
+        reindexQueue.stop();
+        for (ElasticSearchConnection connection : connections) {
+            connection.stop();
+        }
         logger.info("Disconnected from ElasticSearch");
     }
-
-    private JestClient getJestClient(final String hostName, final Boolean discovery) throws Throwable {
-      JestClientFactory factory = new JestClientFactory();
-      factory.setHttpClientConfig(JestDefaultHttpConfigFactory.getConfigFor(hostName, discovery));
-      return factory.getObject();
-    }
 }
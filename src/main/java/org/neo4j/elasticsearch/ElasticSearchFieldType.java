@@ -0,0 +1,69 @@
+package org.neo4j.elasticsearch;
+
+import com.google.gson.JsonObject;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The mapping type of a field, and for text fields optionally the analyzer, e.g. <code>name:text/english</code> in the index spec.
+ * Only text fields are scored, all others are kept out of <code>_all</code> and don't get norms.
+ */
+class ElasticSearchFieldType {
+    public final static Set<String> TYPES = new HashSet<>(Arrays.asList(
+            "text", "keyword", "long", "integer", "short", "byte", "double", "float", "boolean", "date"));
+
+    public final static ElasticSearchFieldType KEYWORD = new ElasticSearchFieldType("keyword", null);
+
+    private final String type;
+    private final String analyzer;
+
+    public ElasticSearchFieldType(String type, String analyzer) {
+        this.type = type;
+        this.analyzer = analyzer;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getAnalyzer() {
+        return analyzer;
+    }
+
+    public boolean isScored() {
+        return type.equals("text");
+    }
+
+    public JsonObject toMapping() {
+        JsonObject mapping = new JsonObject();
+        mapping.addProperty("type", type);
+        if (analyzer != null) {
+            mapping.addProperty("analyzer", analyzer);
+        }
+        if (!isScored()) {
+            mapping.addProperty("include_in_all", false);
+            if (type.equals("keyword")) mapping.addProperty("norms", false);
+        }
+        return mapping;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ElasticSearchFieldType)) return false;
+        ElasticSearchFieldType other = (ElasticSearchFieldType) o;
+        return type.equals(other.type) && Objects.equals(analyzer, other.analyzer);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, analyzer);
+    }
+
+    @Override
+    public String toString() {
+        return analyzer == null ? type : type + "/" + analyzer;
+    }
+}
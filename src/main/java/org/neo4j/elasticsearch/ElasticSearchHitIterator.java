@@ -0,0 +1,151 @@
+package org.neo4j.elasticsearch;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.Search;
+import io.searchbox.core.SearchResult;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Pages through the hits of a search with <code>search_after</code>.
+ * The next page is requested as soon as the current one arrives, so at most two pages are held in memory
+ * and the round-trip overlaps with the consumption of the current page.
+ */
+class ElasticSearchHitIterator implements Iterator<ElasticSearchHitIterator.Hit> {
+
+    static class Hit {
+        final String id;
+        final JsonObject source;
+        final double score;
+
+        Hit(String id, JsonObject source, double score) {
+            this.id = id;
+            this.source = source;
+            this.score = score;
+        }
+    }
+
+    private final JestClient client;
+    private final String index;
+    private final JsonElement query;
+    private final int pageSize;
+
+    private final Queue<Hit> page = new ArrayDeque<>();
+    private CompletableFuture<JsonArray> next;
+
+    ElasticSearchHitIterator(JestClient client, String index, String query, int pageSize) {
+        this.client = client;
+        this.index = index;
+        this.query = parseQuery(query);
+        this.pageSize = pageSize;
+        this.next = fetch(null);
+    }
+
+    /**
+     * A query starting with <code>{</code> is taken as query DSL, everything else as a <code>query_string</code>.
+     */
+    static JsonElement parseQuery(String query) {
+        String trimmed = query == null ? "" : query.trim();
+        if (trimmed.startsWith("{")) {
+            return new JsonParser().parse(trimmed);
+        }
+        JsonObject queryString = new JsonObject();
+        queryString.addProperty("query", trimmed.isEmpty() ? "*" : trimmed);
+        JsonObject result = new JsonObject();
+        result.add("query_string", queryString);
+        return result;
+    }
+
+    String searchBody(JsonArray searchAfter) {
+        JsonObject body = new JsonObject();
+        body.addProperty("size", pageSize);
+        body.add("query", query);
+        JsonArray source = new JsonArray();
+        source.add(new JsonPrimitive("id"));
+        body.add("_source", source);
+        JsonArray sort = new JsonArray();
+        sort.add(sortField("_score", "desc"));
+        sort.add(sortField("_uid", "asc"));
+        body.add("sort", sort);
+        if (searchAfter != null) {
+            body.add("search_after", searchAfter);
+        }
+        return body.toString();
+    }
+
+    private static JsonObject sortField(String field, String order) {
+        JsonObject sort = new JsonObject();
+        sort.addProperty(field, order);
+        return sort;
+    }
+
+    private CompletableFuture<JsonArray> fetch(JsonArray searchAfter) {
+        final CompletableFuture<JsonArray> future = new CompletableFuture<>();
+        Search search = new Search.Builder(searchBody(searchAfter)).addIndex(index).build();
+        client.executeAsync(search, new JestResultHandler<SearchResult>() {
+            @Override
+            public void completed(SearchResult result) {
+                if (!result.isSucceeded()) {
+                    future.completeExceptionally(new RuntimeException("ElasticSearch search failed: " + result.getErrorMessage()));
+                    return;
+                }
+                JsonObject hits = result.getJsonObject().getAsJsonObject("hits");
+                future.complete(hits == null ? new JsonArray() : hits.getAsJsonArray("hits"));
+            }
+
+            @Override
+            public void failed(Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (page.isEmpty() && next != null) {
+            JsonArray hits = await(next);
+            next = null;
+            for (JsonElement element : hits) {
+                JsonObject hit = element.getAsJsonObject();
+                JsonElement score = hit.get("_score");
+                page.add(new Hit(hit.get("_id").getAsString(),
+                        hit.has("_source") ? hit.getAsJsonObject("_source") : new JsonObject(),
+                        score == null || score.isJsonNull() ? 0 : score.getAsDouble()));
+            }
+            if (hits.size() == pageSize) {
+                next = fetch(hits.get(hits.size() - 1).getAsJsonObject().getAsJsonArray("sort"));
+            }
+        }
+        return !page.isEmpty();
+    }
+
+    @Override
+    public Hit next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return page.poll();
+    }
+
+    private static JsonArray await(CompletableFuture<JsonArray> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for ElasticSearch", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+        }
+    }
+}
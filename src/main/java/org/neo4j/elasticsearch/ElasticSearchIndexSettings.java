@@ -1,22 +1,69 @@
 package org.neo4j.elasticsearch;
 
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class ElasticSearchIndexSettings {
     private Map<String, List<ElasticSearchIndexSpec>> indexSpec;
     private boolean includeIDField;
     private boolean includeLabelsField;
+    private Set<ElasticSearchRelatedProperty> relatedProperties = new LinkedHashSet<>();
+    private Set<String> keyProperties = new LinkedHashSet<>();
+    private String indexSpecSource;
 
     public ElasticSearchIndexSettings(Map indexSpec, boolean includeIDField, boolean includeLabelsField) {
     	this.indexSpec = indexSpec;
     	this.includeIDField = includeIDField;
     	this.includeLabelsField = includeLabelsField;
+    	for (List<ElasticSearchIndexSpec> specs : this.indexSpec.values()) {
+    	    for (ElasticSearchIndexSpec spec : specs) {
+    	        relatedProperties.addAll(spec.getRelatedProperties());
+    	        if (spec.getIdProperty() != null) keyProperties.add(spec.getIdProperty());
+    	        if (spec.getRoutingProperty() != null) keyProperties.add(spec.getRoutingProperty());
+    	    }
+    	}
     }
     
     public Map<String, List<ElasticSearchIndexSpec>> getIndexSpec() {
     	return indexSpec;
     }
+    public Set<String> getIndexLabels() {
+        return indexSpec.keySet();
+    }
+    /**
+     * @return false if the index is defined with an id property, so its document ids aren't node ids
+     */
+    public boolean usesNodeIds(String index) {
+        for (List<ElasticSearchIndexSpec> specs : indexSpec.values()) {
+            for (ElasticSearchIndexSpec spec : specs) {
+                if (spec.getIndexName().equals(index) && spec.getIdProperty() != null) return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * @return the neighbour properties of all index specs
+     */
+    public Set<ElasticSearchRelatedProperty> getRelatedProperties() {
+        return relatedProperties;
+    }
+    /**
+     * @return the properties used as document id or routing by any index spec
+     */
+    public Set<String> getKeyProperties() {
+        return keyProperties;
+    }
+    /**
+     * @return the index_spec the settings were parsed from, null if unknown
+     */
+    public String getIndexSpecSource() {
+        return indexSpecSource;
+    }
+    public void setIndexSpecSource(String value) {
+        indexSpecSource = value;
+    }
     public boolean getIncludeIDField() {
     	return includeIDField;
     }
@@ -1,18 +1,53 @@
 package org.neo4j.elasticsearch;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 class ElasticSearchIndexSpec {
 
     private String indexName;
 	private Set<String> properties = new LinkedHashSet<String>();
+	private List<ElasticSearchRelatedProperty> relatedProperties = new ArrayList<>();
+	private String idProperty;
+	private String routingProperty;
+	private Map<String, ElasticSearchFieldType> fieldTypes = new HashMap<>();
+	private ElasticSearchRollover.Conditions rollover;
     
     public ElasticSearchIndexSpec(String indexName, Set<String> properties) {
         this.indexName = indexName;
         this.properties = properties;
     }
+
+    public ElasticSearchIndexSpec(String indexName, Set<String> properties, List<ElasticSearchRelatedProperty> relatedProperties) {
+        this(indexName, properties);
+        this.relatedProperties = relatedProperties;
+    }
     
+    public ElasticSearchIndexSpec(String indexName, Set<String> properties, List<ElasticSearchRelatedProperty> relatedProperties,
+                                  String idProperty, String routingProperty) {
+        this(indexName, properties, relatedProperties);
+        this.idProperty = idProperty;
+        this.routingProperty = routingProperty;
+    }
+
+    public ElasticSearchIndexSpec(String indexName, Set<String> properties, List<ElasticSearchRelatedProperty> relatedProperties,
+                                  String idProperty, String routingProperty, Map<String, ElasticSearchFieldType> fieldTypes) {
+        this(indexName, properties, relatedProperties, idProperty, routingProperty);
+        this.fieldTypes = fieldTypes;
+    }
+
+    public ElasticSearchIndexSpec(String indexName, Set<String> properties, List<ElasticSearchRelatedProperty> relatedProperties,
+                                  String idProperty, String routingProperty, Map<String, ElasticSearchFieldType> fieldTypes,
+                                  ElasticSearchRollover.Conditions rollover) {
+        this(indexName, properties, relatedProperties, idProperty, routingProperty, fieldTypes);
+        this.rollover = rollover;
+    }
+
     public String getIndexName() {
 		return indexName;
 	}
@@ -21,12 +56,71 @@ class ElasticSearchIndexSpec {
 		return properties;
 	}
 
+    public List<ElasticSearchRelatedProperty> getRelatedProperties() {
+        return relatedProperties;
+    }
+
+    /**
+     * @return the property used as document id, null for the node id
+     */
+    public String getIdProperty() {
+        return idProperty;
+    }
+
+    /**
+     * @return the property used as custom routing, null for the default routing
+     */
+    public String getRoutingProperty() {
+        return routingProperty;
+    }
+
+    /**
+     * @return the declared types by field name, fields without a type are mapped dynamically
+     */
+    public Map<String, ElasticSearchFieldType> getFieldTypes() {
+        return fieldTypes;
+    }
+
+    /**
+     * @return the rollover conditions, null if the index isn't rolled over
+     */
+    public ElasticSearchRollover.Conditions getRollover() {
+        return rollover;
+    }
+
+    /**
+     * @return true if every field of the documents has a declared type
+     */
+    public boolean isFullyTyped() {
+        if (!fieldTypes.keySet().containsAll(properties)) return false;
+        for (ElasticSearchRelatedProperty related : relatedProperties) {
+            if (!fieldTypes.containsKey(related.getFieldName())) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the documents of this spec contain everything the other one renders, under the same id and routing
+     */
+    public boolean covers(ElasticSearchIndexSpec other) {
+        return properties.containsAll(other.properties)
+                && relatedProperties.containsAll(other.relatedProperties)
+                && Objects.equals(idProperty, other.idProperty)
+                && Objects.equals(routingProperty, other.routingProperty);
+    }
+
 	public String toString() {
         String s = this.getClass().getSimpleName() + " " + indexName + ": (";
         for (String p: properties) {
-            s += p + ",";
+            s += p + (fieldTypes.containsKey(p) ? ":" + fieldTypes.get(p) : "") + ",";
+        }
+        for (ElasticSearchRelatedProperty p: relatedProperties) {
+            s += p + (fieldTypes.containsKey(p.getFieldName()) ? ":" + fieldTypes.get(p.getFieldName()) : "") + ",";
         }
         s += ")";
+        if (idProperty != null) s += " id=" + idProperty;
+        if (routingProperty != null) s += " routing=" + routingProperty;
+        if (rollover != null) s += " rollover=" + rollover;
         return s;
     }
 }
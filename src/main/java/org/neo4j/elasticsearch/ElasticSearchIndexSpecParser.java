@@ -5,40 +5,138 @@ import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.DynamicLabel;
 import org.neo4j.graphdb.Label;
 
-import static java.util.Collections.singletonList;
-
 public class ElasticSearchIndexSpecParser {
     
-    private final static Pattern INDEX_SPEC_RE = Pattern.compile("(?<indexname>[a-z][a-z_-]+):(?<label>[A-Za-z0-9_]+)\\((?<props>[^\\)]+)\\)");
+    private final static Pattern INDEX_SPEC_RE = Pattern.compile("(?<indexname>[a-z][a-z_-]+):(?<label>[A-Za-z0-9_]+)\\((?<props>[^\\)]+)\\)(\\[(?<options>[^\\]]*)\\])?");
     private final static Pattern PROPS_SPEC_RE = Pattern.compile("((?!=,)([A-Za-z0-9_]+))+");
+    private final static Pattern OPTION_SPEC_RE = Pattern.compile("\\s*(?<key>[a-z_]+)\\s*=\\s*(?<value>[A-Za-z0-9_]+)\\s*");
+    private final static String FIELD_TYPE_SPEC = "(\\s*:\\s*(?<fieldtype>[a-z]+)(\\s*/\\s*(?<analyzer>[A-Za-z0-9_]+))?)?\\s*";
+    private final static Pattern RELATED_PROP_SPEC_RE = Pattern.compile("(?<type>[A-Za-z0-9_]+)\\s*(?<direction>[<>])\\s*(?<label>[A-Za-z0-9_]+)\\.(?<prop>[A-Za-z0-9_]+)" + FIELD_TYPE_SPEC);
+    private final static Pattern ROLLOVER_AGE_RE = Pattern.compile("[0-9]+(s|m|h|d)");
+    private final static Pattern TYPED_PROP_SPEC_RE = Pattern.compile("\\s*(?<prop>[A-Za-z0-9_]+)" + FIELD_TYPE_SPEC);
     
     public static Map<String, List<ElasticSearchIndexSpec>> parseIndexSpec(String spec) throws ParseException {
         if (spec == null) {
             return Collections.emptyMap();
         }
         Map<String, List<ElasticSearchIndexSpec>> map = new LinkedHashMap<>();
+        Map<String, ElasticSearchRollover.Conditions> rollovers = new HashMap<>();
         Matcher matcher = INDEX_SPEC_RE.matcher(spec);
         while (matcher.find()) {
 
-            Matcher propsMatcher = PROPS_SPEC_RE.matcher(matcher.group("props"));
             Set<String> props = new HashSet<String>();
-            while (propsMatcher.find()) {
-                props.add(propsMatcher.group());
+            List<ElasticSearchRelatedProperty> relatedProps = new ArrayList<>();
+            Map<String, ElasticSearchFieldType> fieldTypes = new HashMap<>();
+            for (String prop : matcher.group("props").split(",")) {
+                Matcher relatedMatcher = RELATED_PROP_SPEC_RE.matcher(prop);
+                if (relatedMatcher.find()) {
+                    ElasticSearchRelatedProperty related = new ElasticSearchRelatedProperty(relatedMatcher.group("type"),
+                            relatedMatcher.group("direction").equals(">") ? Direction.OUTGOING : Direction.INCOMING,
+                            relatedMatcher.group("label"), relatedMatcher.group("prop"));
+                    relatedProps.add(related);
+                    addFieldType(fieldTypes, related.getFieldName(), relatedMatcher, matcher);
+                    continue;
+                }
+                Matcher typedMatcher = TYPED_PROP_SPEC_RE.matcher(prop);
+                if (typedMatcher.matches()) {
+                    props.add(typedMatcher.group("prop"));
+                    addFieldType(fieldTypes, typedMatcher.group("prop"), typedMatcher, matcher);
+                    continue;
+                }
+                Matcher propsMatcher = PROPS_SPEC_RE.matcher(prop);
+                while (propsMatcher.find()) {
+                    props.add(propsMatcher.group());
+                }
             }
             
             String label = matcher.group("label");
-            
-            if (map.containsKey(label)) {
-            	throw new ParseException(matcher.group(), 0);
+            String indexName = matcher.group("indexname");
+            Map<String, String> options = parseOptions(matcher);
+
+            if (!map.containsKey(label)) {
+                map.put(label, new ArrayList<ElasticSearchIndexSpec>());
+            }
+            for (ElasticSearchIndexSpec other : map.get(label)) {
+                if (other.getIndexName().equals(indexName)) {
+                    throw new ParseException(matcher.group(), 0);
+                }
+            }
+            ElasticSearchRollover.Conditions rollover = parseRollover(options, matcher);
+            if (rollover != null && options.containsKey("id")) {
+                throw new ParseException(matcher.group(), matcher.start("options"));
+            }
+            if (rollovers.containsKey(indexName) && !Objects.equals(rollovers.get(indexName), rollover)) {
+                throw new ParseException(matcher.group(), 0);
+            }
+            rollovers.put(indexName, rollover);
+            map.get(label).add(new ElasticSearchIndexSpec(indexName, props, relatedProps,
+                    options.remove("id"), options.remove("routing"), fieldTypes, rollover));
+            if (!options.isEmpty()) {
+                throw new ParseException(matcher.group(), matcher.start("options"));
             }
-            map.put(label,singletonList(new ElasticSearchIndexSpec(matcher.group("indexname"), props)));
         }
+        checkRolloverPatterns(rollovers, spec);
         
         return map;
     }
+
+    /**
+     * The backing indices of a rolled over index and its template match <code>&lt;index&gt;-*</code>,
+     * so no other index may be named like that.
+     */
+    private static void checkRolloverPatterns(Map<String, ElasticSearchRollover.Conditions> rollovers, String spec) throws ParseException {
+        for (Map.Entry<String, ElasticSearchRollover.Conditions> rollover : rollovers.entrySet()) {
+            if (rollover.getValue() == null) continue;
+            for (String indexName : rollovers.keySet()) {
+                if (indexName.startsWith(rollover.getKey() + "-")) {
+                    throw new ParseException("index " + indexName + " collides with the backing indices of " + rollover.getKey()
+                            + " in " + spec, spec.indexOf(indexName + ":"));
+                }
+            }
+        }
+    }
+
+    /**
+     * Rolled over indices are looked up by node id, so they can't have another id, and all labels written to
+     * an index have to agree on its conditions.
+     */
+    private static ElasticSearchRollover.Conditions parseRollover(Map<String, String> options, Matcher matcher) throws ParseException {
+        String docs = options.remove("rollover_docs"), age = options.remove("rollover_age");
+        if (docs == null && age == null) return null;
+        if ((docs != null && !docs.matches("[0-9]+")) || (age != null && !ROLLOVER_AGE_RE.matcher(age).matches())) {
+            throw new ParseException(matcher.group(), matcher.start("options"));
+        }
+        return new ElasticSearchRollover.Conditions(docs == null ? null : Long.valueOf(docs), age);
+    }
+
+    private static void addFieldType(Map<String, ElasticSearchFieldType> fieldTypes, String field, Matcher fieldMatcher, Matcher matcher) throws ParseException {
+        String type = fieldMatcher.group("fieldtype"), analyzer = fieldMatcher.group("analyzer");
+        if (type == null) return;
+        if (!ElasticSearchFieldType.TYPES.contains(type) || (analyzer != null && !type.equals("text"))) {
+            throw new ParseException(matcher.group(), matcher.start("props"));
+        }
+        fieldTypes.put(field, new ElasticSearchFieldType(type, analyzer));
+    }
+
+    private static Map<String, String> parseOptions(Matcher matcher) throws ParseException {
+        Map<String, String> options = new HashMap<>();
+        String spec = matcher.group("options");
+        if (spec == null || spec.trim().isEmpty()) {
+            return options;
+        }
+        for (String option : spec.split(",")) {
+            Matcher optionMatcher = OPTION_SPEC_RE.matcher(option);
+            if (!optionMatcher.matches()) {
+                throw new ParseException(matcher.group(), matcher.start("options"));
+            }
+            options.put(optionMatcher.group("key"), optionMatcher.group("value"));
+        }
+        return options;
+    }
     
 
 }
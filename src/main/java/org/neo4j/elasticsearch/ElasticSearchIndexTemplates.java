@@ -0,0 +1,83 @@
+package org.neo4j.elasticsearch;
+
+import com.google.gson.JsonObject;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds one index template per index of the index spec, with an explicit mapping for every label written to it.
+ * <code>id</code> and <code>labels</code> are keywords, typed fields are mapped as declared. If every field of a label
+ * is typed its mapping is strict, so new fields never cause mapping updates, otherwise the untyped fields stay dynamic.
+ * The template of an index in rollover mode applies to its backing indices and adds them to the alias.
+ * The mappings are those of ElasticSearch 5, with one type per label and <code>include_in_all</code>.
+ */
+class ElasticSearchIndexTemplates {
+    public final static String PREFIX = "neo4j-";
+    private final static int ORDER = 10;
+
+    /**
+     * @return the templates by template name
+     */
+    public static Map<String, JsonObject> templates(ElasticSearchIndexSettings settings) {
+        Map<String, JsonObject> templates = new LinkedHashMap<>();
+        for (Map.Entry<String, List<ElasticSearchIndexSpec>> entry : settings.getIndexSpec().entrySet()) {
+            for (ElasticSearchIndexSpec spec : entry.getValue()) {
+                JsonObject template = templates.computeIfAbsent(PREFIX + spec.getIndexName(), name -> template(spec.getIndexName(), spec.getRollover() != null));
+                template.getAsJsonObject("mappings").add(entry.getKey(), mapping(spec, settings));
+            }
+        }
+        return templates;
+    }
+
+    /**
+     * @return the index the template applies to
+     */
+    public static String index(JsonObject template) {
+        String pattern = template.get("template").getAsString();
+        return pattern.endsWith("-*") ? pattern.substring(0, pattern.length() - 2) : pattern;
+    }
+
+    private static JsonObject template(String indexName, boolean rollover) {
+        JsonObject template = new JsonObject();
+        template.addProperty("template", rollover ? indexName + "-*" : indexName);
+        template.addProperty("order", ORDER);
+        template.add("mappings", new JsonObject());
+        if (rollover) {
+            JsonObject aliases = new JsonObject();
+            aliases.add(indexName, new JsonObject());
+            template.add("aliases", aliases);
+        }
+        return template;
+    }
+
+    private static JsonObject mapping(ElasticSearchIndexSpec spec, ElasticSearchIndexSettings settings) {
+        JsonObject properties = new JsonObject();
+        if (settings.getIncludeIDField()) properties.add("id", ElasticSearchFieldType.KEYWORD.toMapping());
+        if (settings.getIncludeLabelsField()) properties.add("labels", ElasticSearchFieldType.KEYWORD.toMapping());
+        for (Map.Entry<String, ElasticSearchFieldType> field : spec.getFieldTypes().entrySet()) {
+            add(properties, field.getKey().split("\\."), 0, field.getValue().toMapping());
+        }
+        JsonObject mapping = new JsonObject();
+        mapping.addProperty("dynamic", spec.isFullyTyped() ? "strict" : "true");
+        mapping.add("properties", properties);
+        return mapping;
+    }
+
+    /**
+     * Related properties are named <code>TYPE.Label.prop</code>, which ElasticSearch maps as nested objects.
+     */
+    private static void add(JsonObject properties, String[] path, int i, JsonObject mapping) {
+        if (i == path.length - 1) {
+            properties.add(path[i], mapping);
+            return;
+        }
+        if (!properties.has(path[i])) {
+            JsonObject object = new JsonObject();
+            object.add("properties", new JsonObject());
+            properties.add(path[i], object);
+        }
+        add(properties.getAsJsonObject(path[i]).getAsJsonObject("properties"), path, i + 1, mapping);
+    }
+}
@@ -9,6 +9,14 @@ import org.neo4j.kernel.extension.KernelExtensionFactory;
 import org.neo4j.kernel.impl.spi.KernelContext;
 import org.neo4j.kernel.lifecycle.Lifecycle;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
 import static org.neo4j.kernel.configuration.Settings.*;
 
 /**
@@ -18,6 +26,7 @@ import static org.neo4j.kernel.configuration.Settings.*;
 public class ElasticSearchKernelExtensionFactory extends KernelExtensionFactory<ElasticSearchKernelExtensionFactory.Dependencies> {
 
     public static final String SERVICE_NAME = "ELASTIC_SEARCH";
+    private final static Logger logger = Logger.getLogger(ElasticSearchKernelExtensionFactory.class.getName());
 
     @Description("Settings for the Elastic Search Extension")
     public static abstract class ElasticSearchSettings {
@@ -26,6 +35,19 @@ public class ElasticSearchKernelExtensionFactory extends KernelExtensionFactory<
         public static Setting<Boolean> discovery = setting("elasticsearch.discovery", BOOLEAN, "false");
         public static Setting<Boolean> includeIDField = setting("elasticsearch.include_id_field", BOOLEAN, "true");
         public static Setting<Boolean> includeLabelsField = setting("elasticsearch.include_labels_field", BOOLEAN, "true");
+        public static Setting<Integer> reindexBatchSize = setting("elasticsearch.reindex_batch_size", INTEGER, "500");
+        public static Setting<Long> reindexInterval = setting("elasticsearch.reindex_interval_ms", LONG, "1000");
+        public static Setting<Integer> backfillRate = setting("elasticsearch.backfill_rate", INTEGER, "1000");
+        public static Setting<Integer> batchSize = setting("elasticsearch.batch_size", INTEGER, "1000");
+        public static Setting<Integer> queueSize = setting("elasticsearch.queue_size", INTEGER, "10000");
+        public static Setting<Boolean> indexTemplates = setting("elasticsearch.index_templates", BOOLEAN, "true");
+        public static Setting<String> targets = setting("elasticsearch.targets", STRING, (String) null);
+        public static Setting<Long> rolloverInterval = setting("elasticsearch.rollover_interval_ms", LONG, "60000");
+        public static Setting<Long> maxRetryTime = setting("elasticsearch.max_retry_ms", LONG, "300000");
+        public static Setting<Long> slowCommit = setting("elasticsearch.slow_commit_ms", LONG, "500");
+        public static Setting<String> snapshotDirectory = setting("elasticsearch.snapshot_dir", STRING, (String) null);
+        public static Setting<Long> slowCommitLogInterval = setting("elasticsearch.slow_commit_log_interval_ms", LONG, "1000");
+        public static Setting<Integer> slowCommitSample = setting("elasticsearch.slow_commit_sample", INTEGER, "100");
         // todo settings for label, property, indexName
     }
 
@@ -37,12 +59,61 @@ public class ElasticSearchKernelExtensionFactory extends KernelExtensionFactory<
     public Lifecycle newInstance(KernelContext kernelContext, Dependencies dependencies) {
         Config config = dependencies.getConfig();
         
-        return new ElasticSearchExtension(dependencies.getGraphDatabaseService(),
-                config.get(ElasticSearchSettings.hostName),
+        ElasticSearchExtension extension = new ElasticSearchExtension(dependencies.getGraphDatabaseService(),
+                connections(config),
                 config.get(ElasticSearchSettings.indexSpec),
-                config.get(ElasticSearchSettings.discovery),
                 config.get(ElasticSearchSettings.includeIDField),
-                config.get(ElasticSearchSettings.includeLabelsField));
+                config.get(ElasticSearchSettings.includeLabelsField),
+                config.get(ElasticSearchSettings.reindexBatchSize),
+                config.get(ElasticSearchSettings.reindexInterval),
+                config.get(ElasticSearchSettings.backfillRate),
+                config.get(ElasticSearchSettings.indexTemplates),
+                new ElasticSearchCommitLog(config.get(ElasticSearchSettings.slowCommit),
+                        config.get(ElasticSearchSettings.slowCommitLogInterval), TimeUnit.MILLISECONDS,
+                        config.get(ElasticSearchSettings.slowCommitSample)));
+        extension.setSnapshotDirectory(config.get(ElasticSearchSettings.snapshotDirectory));
+        return extension;
+    }
+
+    /**
+     * The cluster of <code>elasticsearch.host_name</code>, if set, receives all indices. Every name in
+     * <code>elasticsearch.targets</code> adds a cluster configured by <code>elasticsearch.target.&lt;name&gt;.*</code>.
+     */
+    static List<ElasticSearchConnection> connections(Config config) {
+        boolean discovery = config.get(ElasticSearchSettings.discovery);
+        int batchSize = config.get(ElasticSearchSettings.batchSize);
+        int queueSize = config.get(ElasticSearchSettings.queueSize);
+        List<ElasticSearchConnection> connections = new ArrayList<>();
+        String hostName = config.get(ElasticSearchSettings.hostName);
+        if (hostName != null) {
+            connections.add(new ElasticSearchConnection(ElasticSearchConnection.DEFAULT_NAME, hostName, discovery,
+                    Collections.<String>emptySet(), batchSize, queueSize));
+        }
+        String targets = config.get(ElasticSearchSettings.targets);
+        for (String name : targets == null ? new String[0] : targets.split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) continue;
+            String prefix = "elasticsearch.target." + name + ".";
+            String targetHostName = config.getRaw(prefix + "host_name").orElse(null);
+            if (targetHostName == null) {
+                logger.severe("ElasticSearch Integration: no " + prefix + "host_name, ignoring target " + name);
+                continue;
+            }
+            Set<String> indices = new LinkedHashSet<>();
+            for (String index : config.getRaw(prefix + "indices").orElse("").split(",")) {
+                if (!index.trim().isEmpty()) indices.add(index.trim());
+            }
+            connections.add(new ElasticSearchConnection(name, targetHostName,
+                    Boolean.parseBoolean(config.getRaw(prefix + "discovery").orElse(String.valueOf(discovery))),
+                    indices,
+                    Integer.parseInt(config.getRaw(prefix + "batch_size").orElse(String.valueOf(batchSize))),
+                    Integer.parseInt(config.getRaw(prefix + "queue_size").orElse(String.valueOf(queueSize)))));
+        }
+        for (ElasticSearchConnection connection : connections) {
+            connection.setRolloverInterval(config.get(ElasticSearchSettings.rolloverInterval));
+            connection.setMaxRetryTime(config.get(ElasticSearchSettings.maxRetryTime));
+        }
+        return connections;
     }
 
     public interface Dependencies {
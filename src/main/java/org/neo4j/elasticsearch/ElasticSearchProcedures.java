@@ -0,0 +1,125 @@
+package org.neo4j.elasticsearch;
+
+import com.google.gson.JsonElement;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Description;
+import org.neo4j.procedure.Mode;
+import org.neo4j.procedure.Name;
+import org.neo4j.procedure.Procedure;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Cypher procedures backed by the running {@link ElasticSearchExtension}.
+ */
+public class ElasticSearchProcedures {
+
+    @Context
+    public GraphDatabaseService db;
+
+    public static class NodeResult {
+        public final Node node;
+        public final double score;
+
+        public NodeResult(Node node, double score) {
+            this.node = node;
+            this.score = score;
+        }
+    }
+
+    @Procedure(name = "elasticsearch.search", mode = Mode.READ)
+    @Description("CALL elasticsearch.search(index, query, pageSize = 1000) YIELD node, score - " +
+            "streams the nodes of the hits of a query string or query DSL object")
+    public Stream<NodeResult> search(@Name("index") String index,
+                                     @Name("query") String query,
+                                     @Name(value = "pageSize", defaultValue = "1000") long pageSize) {
+        if (pageSize <= 0 || pageSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("pageSize must be between 1 and " + Integer.MAX_VALUE + ": " + pageSize);
+        }
+        ElasticSearchExtension extension = extension();
+        ElasticSearchHitIterator hits = new ElasticSearchHitIterator(extension.getClient(index), index, query, (int) pageSize);
+        boolean nodeIds = extension.getIndexSettings().usesNodeIds(index);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(hits, Spliterator.ORDERED), false)
+                .map(hit -> toResult(hit, nodeIds))
+                .filter(result -> result != null);
+    }
+
+    @Procedure(name = "elasticsearch.reload", mode = Mode.DBMS)
+    @Description("CALL elasticsearch.reload(indexSpec) YIELD index, label, change, backfill - " +
+            "replaces the index spec and backfills added or extended indices in the background")
+    public Stream<ElasticSearchExtension.IndexChange> reload(@Name("indexSpec") String indexSpec) throws ParseException {
+        return extension().reloadIndexSpec(indexSpec).stream();
+    }
+
+    @Procedure(name = "elasticsearch.status", mode = Mode.READ)
+    @Description("CALL elasticsearch.status() YIELD name, host, state, queued, sent, retried, failed, dropped, reindexPending - " +
+            "the state of every ElasticSearch cluster the changes are sent to")
+    public Stream<ElasticSearchExtension.Status> status() {
+        return extension().getStatus().stream();
+    }
+
+    public static class SnapshotResult {
+        public final String manifest;
+        public final long lastCommittedTxId;
+        public final long shards;
+        public final long documents;
+        public final long bytes;
+        public final long millis;
+
+        public SnapshotResult(String manifest, long lastCommittedTxId, long shards, long documents, long bytes, long millis) {
+            this.manifest = manifest;
+            this.lastCommittedTxId = lastCommittedTxId;
+            this.shards = shards;
+            this.documents = documents;
+            this.bytes = bytes;
+            this.millis = millis;
+        }
+    }
+
+    @Procedure(name = "elasticsearch.snapshot", mode = Mode.DBMS)
+    @Description("CALL elasticsearch.snapshot(directory, shards = 4, compress = true) YIELD manifest, lastCommittedTxId, shards, documents, bytes, millis - " +
+            "writes the documents of all indexed nodes as _bulk files and a manifest with the last committed transaction id, " +
+            "to a directory within elasticsearch.snapshot_dir")
+    public Stream<SnapshotResult> snapshot(@Name("directory") String directory,
+                                           @Name(value = "shards", defaultValue = "4") long shards,
+                                           @Name(value = "compress", defaultValue = "true") boolean compress) throws IOException, InterruptedException {
+        ElasticSearchSnapshot.Manifest manifest = extension().snapshot(directory, (int) Math.min(shards, Integer.MAX_VALUE), compress);
+        long bytes = 0;
+        for (ElasticSearchSnapshot.Shard shard : manifest.shards) bytes += shard.bytes;
+        return Stream.of(new SnapshotResult(extension().snapshotDirectory(directory).resolve(ElasticSearchSnapshot.MANIFEST).toString(), manifest.lastCommittedTxId,
+                manifest.shards.size(), manifest.documents, bytes, manifest.finished - manifest.started));
+    }
+
+    /**
+     * @param nodeIds whether the document ids are node ids, otherwise only the <code>id</code> field identifies the node
+     */
+    private NodeResult toResult(ElasticSearchHitIterator.Hit hit, boolean nodeIds) {
+        JsonElement id = hit.source.get("id");
+        if (id == null && !nodeIds) return null;
+        try {
+            long nodeId = Long.parseLong(id == null ? hit.id : id.getAsString());
+            return new NodeResult(db.getNodeById(nodeId), hit.score);
+        } catch (NumberFormatException | NotFoundException e) {
+            // stale document or one not written by this extension
+            return null;
+        }
+    }
+
+    private ElasticSearchExtension extension() {
+        ElasticSearchExtension extension = ((GraphDatabaseAPI) db).getDependencyResolver()
+                .resolveDependency(ElasticSearchExtension.class);
+        if (!extension.isEnabled()) {
+            throw new IllegalStateException("ElasticSearch Integration is not enabled");
+        }
+        return extension;
+    }
+}
@@ -0,0 +1,242 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.action.BulkableAction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.impl.transaction.log.TransactionIdStore;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Re-renders the documents of nodes outside of the commit path.
+ * Invalidations are de-duplicated until the next flush, so many changes to the neighbours of a node,
+ * or one change to a node with many neighbours, end up as a few bulk requests with one document per node.
+ * A node changed by a transaction while its batch was rendered is rendered again in the next flush instead of
+ * being sent, see {@link ElasticSearchEventHandler#submitReindexed(Map, Set)}. The documents are versioned with the last transaction
+ * closed before the render, so one that is sent late can't overwrite the document of a later commit either.
+ * Commits that don't fit in the queue of a cluster end up here too, the deletes as they are, as tombstones.
+ */
+class ElasticSearchReindexQueue {
+    private final static Logger logger = Logger.getLogger(ElasticSearchReindexQueue.class.getName());
+    private final static Set<String> ALL_INDICES = Collections.emptySet();
+
+    private final GraphDatabaseService db;
+    private final ElasticSearchEventHandler handler;
+    private final int batchSize;
+    private final long flushInterval;
+
+    // the indices to render each node for, all of them if empty
+    private final Map<Long, Set<String>> dirtyNodes = new ConcurrentHashMap<>();
+    private final Set<Neighbours> dirtyNeighbours = ConcurrentHashMap.newKeySet();
+    private final Queue<BulkableAction> tombstones = new ConcurrentLinkedQueue<>();
+    private ScheduledExecutorService executor;
+    // runs between rendering a batch and submitting it, for tests
+    Runnable afterRender = () -> {};
+
+    public ElasticSearchReindexQueue(GraphDatabaseService db, ElasticSearchEventHandler handler, int batchSize, long flushInterval) {
+        this.db = db;
+        this.handler = handler;
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+    }
+
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "neo4j-elasticsearch-reindex");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (executor == null) return;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(flushInterval * 10, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+    }
+
+    /**
+     * Marks the document of the node as stale.
+     */
+    public void invalidate(long nodeId) {
+        dirtyNodes.put(nodeId, ALL_INDICES);
+    }
+
+    /**
+     * Marks the documents of the node in some indices as missing, the other indices of the node are left alone.
+     */
+    public void backfill(long nodeId, Set<String> indices) {
+        dirtyNodes.merge(nodeId, indices, ElasticSearchReindexQueue::union);
+    }
+
+    private static Set<String> union(Set<String> indices, Set<String> other) {
+        if (indices.isEmpty() || other.isEmpty()) return ALL_INDICES;
+        Set<String> union = new HashSet<>(indices);
+        union.addAll(other);
+        return union;
+    }
+
+    /**
+     * Marks the documents of all nodes that copy the related property from the given node as stale.
+     * The neighbours are only looked up when the queue is flushed, to keep the commit path independent of the degree.
+     */
+    public void invalidateNeighbours(long nodeId, ElasticSearchRelatedProperty property) {
+        dirtyNeighbours.add(new Neighbours(nodeId, property));
+    }
+
+    /**
+     * Keeps a delete that didn't fit in the queue of a cluster until the next flush, its node can't be rendered anymore.
+     */
+    public void tombstone(BulkableAction delete) {
+        tombstones.add(delete);
+    }
+
+    public int size() {
+        return dirtyNodes.size() + dirtyNeighbours.size() + tombstones.size();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Error reindexing ElasticSearch documents", e);
+        }
+    }
+
+    /**
+     * Stops at the first batch that doesn't fit in the queues, the rest waits for the next flush.
+     * @return the number of documents sent
+     */
+    public synchronized int flush() {
+        if (!handler.isReady()) return 0;
+        List<BulkableAction> deletes = take(tombstones, Integer.MAX_VALUE);
+        if (!deletes.isEmpty() && !handler.submit(deletes)) {
+            tombstones.addAll(deletes);
+            return 0;
+        }
+        expandNeighbours();
+        int sent = deletes.size();
+        Map<Long, Set<String>> stale = new HashMap<>();
+        boolean queued = true;
+        Map<Long, Set<String>> batch;
+        while (queued && !(batch = take(dirtyNodes, batchSize)).isEmpty()) {
+            Map<Long, Collection<? extends BulkableAction>> rendered = new LinkedHashMap<>(batch.size() * 2);
+            handler.beginReindex();
+            try {
+                long version = lastClosedTransactionId();
+                try (Transaction tx = db.beginTx()) {
+                    for (Map.Entry<Long, Set<String>> entry : batch.entrySet()) {
+                        try {
+                            Node node = db.getNodeById(entry.getKey());
+                            Set<String> indices = entry.getValue();
+                            rendered.put(node.getId(), handler.versioned(version, () -> indices.isEmpty()
+                                    ? handler.indexRequests(node).values() : handler.indexRequests(node, indices).values()));
+                        } catch (NotFoundException e) {
+                            // deleted since, the delete was sent by the commit or kept as tombstone
+                        }
+                    }
+                    tx.success();
+                }
+                afterRender.run();
+            } finally {
+                Set<Long> changed = new HashSet<>();
+                queued = handler.submitReindexed(rendered, changed);
+                for (Long id : changed) stale.put(id, batch.get(id));
+                for (Map.Entry<Long, Collection<? extends BulkableAction>> entry : rendered.entrySet()) {
+                    if (!changed.contains(entry.getKey())) sent += entry.getValue().size();
+                }
+            }
+        }
+        stale.forEach((id, indices) -> dirtyNodes.merge(id, indices, ElasticSearchReindexQueue::union));
+        return sent;
+    }
+
+    private long lastClosedTransactionId() {
+        return ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(TransactionIdStore.class).getLastClosedTransactionId();
+    }
+
+    private void expandNeighbours() {
+        List<Neighbours> expansions = take(dirtyNeighbours, Integer.MAX_VALUE);
+        if (expansions.isEmpty()) return;
+        try (Transaction tx = db.beginTx()) {
+            for (Neighbours neighbours : expansions) {
+                try {
+                    for (Node owner : neighbours.property.owners(db.getNodeById(neighbours.nodeId))) {
+                        if (handler.hasLabel(owner)) invalidate(owner.getId());
+                    }
+                } catch (NotFoundException e) {
+                    // deleted since, the removed relationships invalidated its neighbours
+                }
+            }
+            tx.success();
+        }
+    }
+
+    private static <K, V> Map<K, V> take(Map<K, V> map, int max) {
+        Map<K, V> result = new LinkedHashMap<>();
+        Iterator<K> it = map.keySet().iterator();
+        while (result.size() < max && it.hasNext()) {
+            K key = it.next();
+            V value = map.remove(key);
+            if (value != null) result.put(key, value);
+        }
+        return result;
+    }
+
+    private static <T> List<T> take(Collection<T> set, int max) {
+        List<T> result = new ArrayList<>(Math.min(max, set.size()));
+        Iterator<T> it = set.iterator();
+        while (result.size() < max && it.hasNext()) {
+            result.add(it.next());
+            it.remove();
+        }
+        return result;
+    }
+
+    private static class Neighbours {
+        final long nodeId;
+        final ElasticSearchRelatedProperty property;
+
+        Neighbours(long nodeId, ElasticSearchRelatedProperty property) {
+            this.nodeId = nodeId;
+            this.property = property;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Neighbours)) return false;
+            Neighbours other = (Neighbours) o;
+            return nodeId == other.nodeId && property.equals(other.property);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(nodeId) * 31 + property.hashCode();
+        }
+    }
+}
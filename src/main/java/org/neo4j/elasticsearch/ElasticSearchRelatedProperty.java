@@ -0,0 +1,100 @@
+package org.neo4j.elasticsearch;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A property of a neighbouring node that is copied into the document, written as
+ * <code>TYPE&gt;Label.property</code> (outgoing) or <code>TYPE&lt;Label.property</code> (incoming) in the index spec.
+ */
+class ElasticSearchRelatedProperty {
+
+    private final RelationshipType type;
+    private final Direction direction;
+    private final Label label;
+    private final String property;
+
+    public ElasticSearchRelatedProperty(String type, Direction direction, String label, String property) {
+        this.type = RelationshipType.withName(type);
+        this.direction = direction;
+        this.label = Label.label(label);
+        this.property = property;
+    }
+
+    public RelationshipType getType() {
+        return type;
+    }
+
+    public Direction getDirection() {
+        return direction;
+    }
+
+    public Label getLabel() {
+        return label;
+    }
+
+    public String getProperty() {
+        return property;
+    }
+
+    public String getFieldName() {
+        return type.name() + "." + label.name() + "." + property;
+    }
+
+    /**
+     * @return the values of the property on all neighbours of the node, empty if there are none
+     */
+    public List<Object> values(Node node) {
+        List<Object> values = new ArrayList<>();
+        for (Relationship rel : node.getRelationships(direction, type)) {
+            Node other = rel.getOtherNode(node);
+            if (other.hasLabel(label) && other.hasProperty(property)) {
+                values.add(other.getProperty(property));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the node whose document holds this property, if the relationship is one this property follows
+     */
+    public Node owner(Relationship rel) {
+        if (!rel.isType(type)) return null;
+        return direction == Direction.INCOMING ? rel.getEndNode() : rel.getStartNode();
+    }
+
+    /**
+     * @return the nodes whose documents hold this property of the given neighbour
+     */
+    public List<Node> owners(Node neighbour) {
+        List<Node> owners = new ArrayList<>();
+        for (Relationship rel : neighbour.getRelationships(direction.reverse(), type)) {
+            owners.add(rel.getOtherNode(neighbour));
+        }
+        return owners;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ElasticSearchRelatedProperty)) return false;
+        ElasticSearchRelatedProperty other = (ElasticSearchRelatedProperty) o;
+        return type.name().equals(other.type.name()) && direction == other.direction
+                && label.name().equals(other.label.name()) && property.equals(other.property);
+    }
+
+    @Override
+    public int hashCode() {
+        return ((type.name().hashCode() * 31 + direction.hashCode()) * 31 + label.name().hashCode()) * 31 + property.hashCode();
+    }
+
+    public String toString() {
+        return type.name() + (direction == Direction.INCOMING ? "<" : ">") + label.name() + "." + property;
+    }
+}
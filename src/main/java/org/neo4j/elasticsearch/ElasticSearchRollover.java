@@ -0,0 +1,249 @@
+package org.neo4j.elasticsearch;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import io.searchbox.action.AbstractAction;
+import io.searchbox.action.BulkableAction;
+import io.searchbox.action.GenericResultAbstractAction;
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestResult;
+import io.searchbox.core.Delete;
+import io.searchbox.core.Index;
+import io.searchbox.core.Update;
+import io.searchbox.params.Parameters;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The backing indices of an index in rollover mode on one cluster. The index name of the spec is an alias over all
+ * backing indices, searches go to the alias, <code>&lt;index&gt;-write</code> points at the newest backing index.
+ * Every backing index holds the nodes from the id in its name up to the id of the next one, e.g.
+ * <code>events-000000000000</code> and <code>events-000001200000</code>, so updates and deletes of older nodes find
+ * their document again, also after a restart, without keeping more than one entry per backing index.
+ * A rollover starts the next backing index above the highest node id in use, so every node written before stays where it is.
+ */
+class ElasticSearchRollover {
+    private final static Gson gson = new Gson();
+
+    /**
+     * The rollover thresholds of an index, e.g. <code>[rollover_docs=1000000,rollover_age=7d]</code>,
+     * rolled over as soon as one of them is reached. There's no size condition, ElasticSearch 5 has no <code>max_size</code>.
+     */
+    public static class Conditions {
+        public final Long docs;
+        public final String age;
+
+        public Conditions(Long docs, String age) {
+            this.docs = docs;
+            this.age = age;
+        }
+
+        public JsonObject toJson() {
+            JsonObject conditions = new JsonObject();
+            if (docs != null) conditions.addProperty("max_docs", docs);
+            if (age != null) conditions.addProperty("max_age", age);
+            return conditions;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Conditions)) return false;
+            Conditions other = (Conditions) o;
+            return Objects.equals(docs, other.docs) && Objects.equals(age, other.age);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(docs, age);
+        }
+
+        @Override
+        public String toString() {
+            return toJson().toString();
+        }
+    }
+
+    /**
+     * @return the rollover conditions by index name, for the indices in rollover mode
+     */
+    public static Map<String, Conditions> conditions(ElasticSearchIndexSettings settings) {
+        Map<String, Conditions> conditions = new LinkedHashMap<>();
+        for (List<ElasticSearchIndexSpec> specs : settings.getIndexSpec().values()) {
+            for (ElasticSearchIndexSpec spec : specs) {
+                if (spec.getRollover() != null) conditions.put(spec.getIndexName(), spec.getRollover());
+            }
+        }
+        return conditions;
+    }
+
+    public static String backingIndex(String alias, long firstNodeId) {
+        return String.format("%s-%012d", alias, firstNodeId);
+    }
+
+    public static String writeAlias(String alias) {
+        return alias + "-write";
+    }
+
+    private final String alias;
+    private final Conditions conditions;
+    private final NavigableMap<Long, String> indices = new ConcurrentSkipListMap<>();
+
+    public ElasticSearchRollover(String alias, Conditions conditions) {
+        this.alias = alias;
+        this.conditions = conditions;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public Conditions getConditions() {
+        return conditions;
+    }
+
+    /**
+     * @return the backing indices by the first node id they hold
+     */
+    public NavigableMap<Long, String> getIndices() {
+        return indices;
+    }
+
+    /**
+     * Reads the backing indices from the alias, creating the first one if there is none yet.
+     *
+     * @throws IOException if ElasticSearch couldn't answer, worth retrying
+     * @throws IllegalStateException if the alias can't be created, e.g. because an index of that name exists
+     */
+    public void load(JestClient client) throws IOException {
+        JestResult result = execute(client, new Request("GET", "_alias/" + alias, null));
+        if (result.getResponseCode() == 200 && result.getJsonObject() != null) {
+            for (Entry<String, ?> entry : result.getJsonObject().entrySet()) {
+                Long first = firstNodeId(entry.getKey());
+                if (first != null) indices.put(first, entry.getKey());
+            }
+        }
+        if (!indices.isEmpty()) return;
+
+        String first = backingIndex(alias, 0);
+        JsonObject aliases = new JsonObject();
+        aliases.add(alias, new JsonObject());
+        aliases.add(writeAlias(alias), new JsonObject());
+        JsonObject body = new JsonObject();
+        body.add("aliases", aliases);
+        JestResult created = execute(client, new Request("PUT", first, body));
+        if (!created.isSucceeded() && !alreadyExists(created)) {
+            throw new IllegalStateException("can't create " + first + " for alias " + alias + ": " + created.getErrorMessage());
+        }
+        indices.put(0L, first);
+    }
+
+    /**
+     * Asks ElasticSearch to roll the write alias over to a new backing index starting at <code>firstNodeId</code>,
+     * if one of the conditions is met. Nothing may be written to this index while the rollover is underway.
+     *
+     * @return the new backing index, null if none of the conditions was met
+     */
+    public String rollover(JestClient client, long firstNodeId) throws IOException {
+        if (indices.isEmpty() || firstNodeId <= indices.lastKey()) return null;
+        String next = backingIndex(alias, firstNodeId);
+        JsonObject aliases = new JsonObject();
+        aliases.add(alias, new JsonObject());
+        JsonObject body = new JsonObject();
+        body.add("conditions", conditions.toJson());
+        body.add("aliases", aliases);
+        JestResult result = execute(client, new Request("POST", writeAlias(alias) + "/_rollover/" + next, body));
+        if (!result.isSucceeded()) {
+            throw new IOException("rollover of " + alias + " failed: " + result.getErrorMessage());
+        }
+        if (!result.getJsonObject().has("rolled_over") || !result.getJsonObject().get("rolled_over").getAsBoolean()) {
+            return null;
+        }
+        indices.put(firstNodeId, next);
+        return next;
+    }
+
+    /**
+     * @return the backing index holding the node
+     */
+    public String indexFor(long nodeId) {
+        Entry<Long, String> entry = indices.floorEntry(nodeId);
+        return entry == null ? indices.firstEntry().getValue() : entry.getValue();
+    }
+
+    /**
+     * @return the action addressed to the backing index of its node instead of the alias
+     */
+    public BulkableAction route(BulkableAction action) {
+        if (!alias.equals(action.getIndex()) || indices.isEmpty()) return action;
+        String index;
+        try {
+            index = indexFor(Long.parseLong(action.getId()));
+        } catch (NumberFormatException e) {
+            return action;
+        }
+        Map<String, Object> parameters = new HashMap<>();
+        for (String parameter : new String[]{Parameters.ROUTING, Parameters.VERSION, Parameters.VERSION_TYPE}) {
+            for (Object value : ((AbstractAction) action).getParameter(parameter)) {
+                parameters.put(parameter, value);
+            }
+        }
+        if (action instanceof Delete) {
+            return new Delete.Builder(action.getId()).index(index).type(action.getType()).setParameter(parameters).build();
+        } else if (action instanceof Update) {
+            return new Update.Builder(action.getData(gson)).index(index).type(action.getType()).id(action.getId()).setParameter(parameters).build();
+        } else if (action instanceof Index) {
+            return new Index.Builder(action.getData(gson)).index(index).type(action.getType()).id(action.getId()).setParameter(parameters).build();
+        }
+        return action;
+    }
+
+    private Long firstNodeId(String index) {
+        if (!index.startsWith(alias + "-")) return null;
+        try {
+            return Long.parseLong(index.substring(alias.length() + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean alreadyExists(JestResult result) {
+        JsonObject json = result.getJsonObject();
+        return json != null && json.has("error") && json.get("error").isJsonObject()
+                && json.getAsJsonObject("error").has("type")
+                && json.getAsJsonObject("error").get("type").getAsString().matches("(index|resource)_already_exists_exception");
+    }
+
+    private static JestResult execute(JestClient client, Request request) throws IOException {
+        JestResult result = client.execute(request);
+        if (result.getResponseCode() == 429 || result.getResponseCode() >= 500) {
+            throw new IOException(request.getRestMethodName() + " " + request.getURI() + " failed with " + result.getResponseCode());
+        }
+        return result;
+    }
+
+    /**
+     * The alias and rollover APIs, which this version of Jest has no actions for.
+     */
+    static class Request extends GenericResultAbstractAction {
+        private final String method;
+
+        Request(String method, String uri, Object payload) {
+            this.method = method;
+            this.payload = payload;
+            setURI(uri);
+        }
+
+        @Override
+        public String getRestMethodName() {
+            return method;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package org.neo4j.elasticsearch;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import io.searchbox.action.BulkableAction;
+import io.searchbox.core.Bulk;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.impl.store.id.IdGeneratorFactory;
+import org.neo4j.kernel.impl.store.id.IdType;
+import org.neo4j.kernel.impl.transaction.log.TransactionIdStore;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the documents of all nodes of the indexed labels to files in the <code>_bulk</code> format, without ElasticSearch.
+ * The node ids are split into one range per shard, every shard walks its own range in its own transaction on its own
+ * thread and writes its own file, so the store is read once however many shards there are. The manifest records the last committed transaction before the export started,
+ * replaying the transactions after it on top of a loaded snapshot brings the indices up to date.
+ */
+class ElasticSearchSnapshot {
+    private final static Logger logger = Logger.getLogger(ElasticSearchSnapshot.class.getName());
+    private final static int BATCH_SIZE = 1000;
+    public final static String MANIFEST = "manifest.json";
+
+    private final GraphDatabaseAPI db;
+    private final ElasticSearchEventHandler handler;
+    private final ElasticSearchIndexSettings settings;
+    private final Path directory;
+    private final int shards;
+    private final boolean compress;
+    private final Map<String, ElasticSearchRollover> rollovers = new HashMap<>();
+    private final Gson gson = new Gson();
+
+    /**
+     * @param rollovers the backing indices of the indices in rollover mode by alias, as looked up by a cluster
+     */
+    public ElasticSearchSnapshot(GraphDatabaseAPI db, ElasticSearchEventHandler handler, Path directory, int shards, boolean compress,
+                                 Map<String, ElasticSearchRollover> rollovers) {
+        this.db = db;
+        this.handler = handler;
+        this.settings = handler.getIndexSettings();
+        this.directory = directory;
+        this.shards = Math.max(1, shards);
+        this.compress = compress;
+        for (Map.Entry<String, ElasticSearchRollover.Conditions> entry : ElasticSearchRollover.conditions(settings).entrySet()) {
+            ElasticSearchRollover rollover = rollovers.get(entry.getKey());
+            if (rollover == null || rollover.getIndices().isEmpty()) {
+                rollover = new ElasticSearchRollover(entry.getKey(), entry.getValue());
+                rollover.getIndices().put(0L, ElasticSearchRollover.writeAlias(entry.getKey()));
+            }
+            this.rollovers.put(entry.getKey(), rollover);
+        }
+    }
+
+    public static class Shard {
+        public final String file;
+        public final long fromNodeId;
+        public final long toNodeId;
+        public long documents;
+        public long bytes;
+
+        Shard(String file, long fromNodeId, long toNodeId) {
+            this.file = file;
+            this.fromNodeId = fromNodeId;
+            this.toNodeId = toNodeId;
+        }
+    }
+
+    public static class Manifest {
+        public long lastCommittedTxId;
+        public long started;
+        public long finished;
+        public boolean compressed;
+        public String indexSpec;
+        public long documents;
+        public List<Shard> shards = new ArrayList<>();
+    }
+
+    public Manifest export() throws IOException, InterruptedException {
+        Files.createDirectories(directory);
+        Manifest manifest = new Manifest();
+        manifest.started = System.currentTimeMillis();
+        manifest.lastCommittedTxId = db.getDependencyResolver().resolveDependency(TransactionIdStore.class).getLastClosedTransactionId();
+        manifest.compressed = compress;
+        manifest.indexSpec = settings.getIndexSpecSource();
+
+        long highestId = db.getDependencyResolver().resolveDependency(IdGeneratorFactory.class).get(IdType.NODE).getHighestPossibleIdInUse();
+        long rangeSize = (highestId + shards) / shards;
+        for (int i = 0; i < shards; i++) {
+            String file = String.format("shard-%03d.ndjson%s", i, compress ? ".gz" : "");
+            manifest.shards.add(new Shard(file, i * rangeSize, (i + 1) * rangeSize));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(shards, r -> {
+            Thread thread = new Thread(r, "neo4j-elasticsearch-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Shard shard : manifest.shards) {
+                futures.add(executor.submit(() -> {
+                    write(shard, manifest.lastCommittedTxId);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Snapshot to " + directory + " failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (Shard shard : manifest.shards) manifest.documents += shard.documents;
+        manifest.finished = System.currentTimeMillis();
+        Files.write(directory.resolve(MANIFEST),
+                new GsonBuilder().setPrettyPrinting().create().toJson(manifest).getBytes(StandardCharsets.UTF_8));
+        logger.info("ElasticSearch Integration: wrote " + manifest.documents + " documents to " + directory + " at transaction " + manifest.lastCommittedTxId);
+        return manifest;
+    }
+
+    /**
+     * @param version the version of the documents, the transaction all of them include at least
+     */
+    private void write(Shard shard, long version) throws IOException {
+        try (WritableByteChannel channel = open(directory.resolve(shard.file));
+             Transaction tx = db.beginTx()) {
+            List<BulkableAction> batch = new ArrayList<>(BATCH_SIZE);
+            for (long id = shard.fromNodeId; id < shard.toNodeId; id++) {
+                Node node;
+                try {
+                    node = db.getNodeById(id);
+                } catch (NotFoundException e) {
+                    continue;
+                }
+                for (Label label : node.getLabels()) {
+                    if (!settings.getIndexLabels().contains(label.name())) continue;
+                    for (BulkableAction action : handler.versioned(version, () -> handler.indexRequests(node, label.name(), settings).values())) {
+                        ElasticSearchRollover rollover = rollovers.get(action.getIndex());
+                        batch.add(rollover == null ? action : rollover.route(action));
+                    }
+                }
+                if (batch.size() >= BATCH_SIZE) {
+                    flush(channel, batch, shard);
+                }
+            }
+            flush(channel, batch, shard);
+            tx.success();
+        }
+    }
+
+    private void flush(WritableByteChannel channel, List<BulkableAction> batch, Shard shard) throws IOException {
+        if (batch.isEmpty()) return;
+        ByteBuffer buffer = ByteBuffer.wrap(new Bulk.Builder().addAction(batch).build().getData(gson).getBytes(StandardCharsets.UTF_8));
+        shard.documents += batch.size();
+        shard.bytes += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        batch.clear();
+    }
+
+    private WritableByteChannel open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        if (!compress) return channel;
+        OutputStream out = new GZIPOutputStream(Channels.newOutputStream(channel), 1 << 16);
+        return Channels.newChannel(out);
+    }
+}
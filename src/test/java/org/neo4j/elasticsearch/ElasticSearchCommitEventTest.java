@@ -0,0 +1,69 @@
+package org.neo4j.elasticsearch;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Only compiled by JDKs with the <code>jdk.jfr</code> API, see the jfr profiles.
+ */
+public class ElasticSearchCommitEventTest {
+
+    private GraphDatabaseService db;
+    private ElasticSearchEventHandler handler;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        handler = new ElasticSearchEventHandler(new RecordingJestClient(), new ElasticSearchIndexSettings(
+                ElasticSearchIndexSpecParser.parseIndexSpec("people:Person(name,email)"), true, true));
+        handler.setUseAsyncJest(false);
+        // every commit sampled, none slow enough to be logged
+        handler.setCommitLog(new ElasticSearchCommitLog(1, 0, TimeUnit.HOURS, 1));
+        db.registerTransactionEventHandler(handler);
+    }
+
+    @After
+    public void tearDown() {
+        db.unregisterTransactionEventHandler(handler);
+        db.shutdown();
+    }
+
+    @Test
+    public void testRecordsFlightRecorderEvent() throws Exception {
+        assumeTrue(ElasticSearchCommitLog.hasFlightRecorder());
+        Path file = Files.createTempFile("commit", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("org.neo4j.elasticsearch.Commit");
+            recording.start();
+            try (Transaction tx = db.beginTx()) {
+                db.createNode(Label.label("Person")).setProperty("name", "Alice");
+                tx.success();
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+
+        assertEquals(1, events.size());
+        assertEquals(1, events.get(0).getInt("documents"));
+        assertEquals(1, events.get(0).getInt("renders"));
+        assertTrue(events.get(0).getLong("bytes") > 0);
+    }
+}
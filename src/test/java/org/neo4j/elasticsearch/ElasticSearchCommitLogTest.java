@@ -0,0 +1,102 @@
+package org.neo4j.elasticsearch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class ElasticSearchCommitLogTest {
+
+    private GraphDatabaseService db;
+    private ElasticSearchEventHandler handler;
+    private final List<String> logged = new ArrayList<>();
+    private final Logger logger = Logger.getLogger(ElasticSearchCommitLog.class.getName());
+    private final Handler capture = new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+            logged.add(record.getMessage());
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        handler = new ElasticSearchEventHandler(new RecordingJestClient(), new ElasticSearchIndexSettings(
+                ElasticSearchIndexSpecParser.parseIndexSpec("people:Person(name,email)"), true, true));
+        handler.setUseAsyncJest(false);
+        db.registerTransactionEventHandler(handler);
+        logger.addHandler(capture);
+    }
+
+    @After
+    public void tearDown() {
+        logger.removeHandler(capture);
+        db.unregisterTransactionEventHandler(handler);
+        db.shutdown();
+    }
+
+    private void createPerson(String name) {
+        try (Transaction tx = db.beginTx()) {
+            db.createNode(Label.label("Person")).setProperty("name", name);
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testLogsSlowCommitWithItsCosts() {
+        handler.setCommitLog(new ElasticSearchCommitLog(1, 0, TimeUnit.NANOSECONDS));
+        createPerson("Alice");
+
+        assertEquals(1, logged.size());
+        String message = logged.get(0);
+        assertTrue(message, message.contains("nodes created 1 deleted 0"));
+        assertTrue(message, message.contains("1 documents from 1 renders"));
+        assertTrue(message, message.contains("labels [Person="));
+        assertTrue(message, message.contains("fields [name=7b]"));
+    }
+
+    @Test
+    public void testOnlySampledCommitsListSizesLabelsAndFields() {
+        handler.setCommitLog(new ElasticSearchCommitLog(1, 0, TimeUnit.NANOSECONDS, Integer.MAX_VALUE));
+        for (int i = 0; i < 10; i++) createPerson("Alice" + i);
+
+        assertEquals(10, logged.size());
+        int sampled = 0;
+        for (String message : logged) {
+            assertTrue(message, message.contains("render "));
+            if (message.contains("fields [")) sampled++;
+        }
+        assertTrue(String.valueOf(sampled), sampled <= 1);
+    }
+
+    @Test
+    public void testLogsAtMostOneSlowCommitPerInterval() {
+        ElasticSearchCommitLog commitLog = new ElasticSearchCommitLog(1, TimeUnit.HOURS.toNanos(1), TimeUnit.NANOSECONDS);
+        handler.setCommitLog(commitLog);
+        createPerson("Alice");
+        createPerson("Bob");
+
+        assertEquals(2, commitLog.getSlow());
+        assertEquals(1, logged.size());
+    }
+}
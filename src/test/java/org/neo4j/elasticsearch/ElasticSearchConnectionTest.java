@@ -0,0 +1,171 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.action.BulkableAction;
+import io.searchbox.core.Delete;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ElasticSearchConnectionTest {
+
+    private ElasticSearchConnection connection;
+
+    @Before
+    public void setUp() {
+        connection = new ElasticSearchConnection("default", "http://localhost:1", false, Collections.<String>emptySet(), 10, 2);
+        connection.start();
+    }
+
+    @After
+    public void tearDown() {
+        connection.stop();
+    }
+
+    private List<BulkableAction> deletes(String index, int count) {
+        List<BulkableAction> actions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            actions.add(new Delete.Builder(String.valueOf(i)).index(index).type("Label").build());
+        }
+        return actions;
+    }
+
+    @Test
+    public void testQueuesUntilConnected() {
+        connection.submit(deletes("index", 3), true);
+
+        assertEquals(ElasticSearchConnection.State.STARTING, connection.getState());
+        assertNull(connection.getClient());
+        assertEquals(2, connection.getQueued());
+        assertEquals(1, connection.getDropped());
+    }
+
+    @Test
+    public void testDropsAfterStop() {
+        connection.submit(deletes("index", 1), true);
+        connection.stop();
+        connection.submit(deletes("index", 1), true);
+
+        assertEquals(ElasticSearchConnection.State.STOPPED, connection.getState());
+        assertEquals(0, connection.getQueued());
+        assertEquals(2, connection.getDropped());
+    }
+
+    @Test
+    public void testCountsQueueDiscardedWhenClientCantBeCreated() throws Exception {
+        ElasticSearchConnection malformed = new ElasticSearchConnection("malformed", "not a url", false,
+                Collections.<String>emptySet(), 10, 10);
+        malformed.submit(deletes("index", 3), true);
+        malformed.start();
+
+        for (int i = 0; i < 100 && malformed.getState() != ElasticSearchConnection.State.FAILED; i++) Thread.sleep(50);
+
+        assertEquals(ElasticSearchConnection.State.FAILED, malformed.getState());
+        assertEquals(0, malformed.getQueued());
+        assertEquals(3, malformed.getDropped());
+        malformed.stop();
+    }
+
+    @Test
+    public void testClientConnectionIsReady() {
+        RecordingJestClient client = new RecordingJestClient();
+        ElasticSearchConnection ready = new ElasticSearchConnection(client);
+        ready.submit(deletes("index", 1), false);
+
+        assertTrue(ready.isReady());
+        assertEquals(1, client.requests.size());
+        assertEquals(1, ready.getSent());
+        ready.stop();
+    }
+
+    @Test
+    public void testPutsTemplatesOfItsIndices() throws Exception {
+        RecordingJestClient client = new RecordingJestClient();
+        ElasticSearchConnection ready = new ElasticSearchConnection(client);
+        ready.setTemplates(ElasticSearchIndexTemplates.templates(new ElasticSearchIndexSettings(
+                ElasticSearchIndexSpecParser.parseIndexSpec("people:Person(name:text)"), true, true)));
+        ready.stop();
+
+        assertEquals(2, client.requests.size());
+        assertTrue(client.requests.get(1), client.requests.get(1).contains("\"template\":\"people\""));
+    }
+
+    @Test
+    public void testOnlyQueuesItsIndices() {
+        ElasticSearchConnection target = new ElasticSearchConnection("archive", "http://localhost:1", false,
+                Collections.singleton("archive"), 10, 10);
+        target.submit(deletes("index", 2), true);
+        target.submit(deletes("archive", 3), true);
+
+        assertTrue(target.accepts("archive"));
+        assertFalse(target.accepts("index"));
+        assertEquals(3, target.getQueued());
+    }
+
+    @Test
+    public void testRetriesRejectedItems() throws Exception {
+        RecordingJestClient client = new RecordingJestClient();
+        client.responses.add("{\"errors\":true,\"items\":[" +
+                "{\"delete\":{\"_index\":\"index\",\"_type\":\"Label\",\"_id\":\"0\",\"status\":200}}," +
+                "{\"delete\":{\"_index\":\"index\",\"_type\":\"Label\",\"_id\":\"1\",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\"}}}," +
+                "{\"delete\":{\"_index\":\"index\",\"_type\":\"Label\",\"_id\":\"2\",\"status\":400,\"error\":{\"type\":\"illegal_argument_exception\"}}}]}");
+        ElasticSearchConnection ready = new ElasticSearchConnection(client);
+        ready.submit(deletes("index", 3), true);
+
+        for (int i = 0; i < 100 && ready.getSent() < 2; i++) Thread.sleep(50);
+        ready.stop();
+
+        assertEquals(2, client.requests.size());
+        String retry = client.requests.get(1);
+        assertTrue(retry, retry.contains("\"_id\":\"1\""));
+        assertFalse(retry, retry.contains("\"_id\":\"0\"") || retry.contains("\"_id\":\"2\""));
+        assertEquals(2, ready.getSent());
+        assertEquals(1, ready.getRetried());
+        assertEquals(1, ready.getFailed());
+    }
+
+    @Test
+    public void testCountsVersionConflictsAsSent() throws Exception {
+        RecordingJestClient client = new RecordingJestClient();
+        client.responses.add("{\"errors\":true,\"items\":[" +
+                "{\"delete\":{\"_index\":\"index\",\"_type\":\"Label\",\"_id\":\"0\",\"status\":200}}," +
+                "{\"delete\":{\"_index\":\"index\",\"_type\":\"Label\",\"_id\":\"1\",\"status\":409,\"error\":{\"type\":\"version_conflict_engine_exception\"}}}]}");
+        ElasticSearchConnection ready = new ElasticSearchConnection(client);
+        ready.submit(deletes("index", 2), true);
+
+        for (int i = 0; i < 100 && ready.getSent() < 2; i++) Thread.sleep(50);
+        ready.stop();
+
+        assertEquals(1, client.requests.size());
+        assertEquals(2, ready.getSent());
+        assertEquals(0, ready.getFailed());
+    }
+
+    @Test
+    public void testGivesUpAfterMaxRetryTime() throws Exception {
+        RecordingJestClient client = new RecordingJestClient();
+        for (int i = 0; i < 10; i++) {
+            client.responses.add("{\"errors\":true,\"items\":[" +
+                    "{\"delete\":{\"_index\":\"index\",\"_type\":\"Label\",\"_id\":\"0\",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\"}}}]}");
+        }
+        ElasticSearchConnection ready = new ElasticSearchConnection(client);
+        ready.setMaxRetryTime(250);
+        ready.submit(deletes("index", 1), true);
+
+        for (int i = 0; i < 100 && ready.getFailed() < 1; i++) Thread.sleep(50);
+        client.responses.clear();
+        ready.submit(deletes("other", 1), true);
+        for (int i = 0; i < 100 && ready.getSent() < 1; i++) Thread.sleep(50);
+        ready.stop();
+
+        assertEquals(3, client.requests.size());
+        assertEquals(1, ready.getRetried());
+        assertEquals(1, ready.getFailed());
+        assertEquals(1, ready.getSent());
+    }
+}
@@ -0,0 +1,128 @@
+package org.neo4j.elasticsearch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.impl.transaction.log.TransactionIdStore;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import static org.junit.Assert.*;
+
+public class ElasticSearchDocumentKeyTest {
+
+    private GraphDatabaseService db;
+    private RecordingJestClient client;
+    private ElasticSearchEventHandler handler;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        client = new RecordingJestClient();
+        ElasticSearchIndexSettings indexSettings = new ElasticSearchIndexSettings(
+                ElasticSearchIndexSpecParser.parseIndexSpec("people:Person(name), tenants:Person(name)[id=uuid,routing=tenant]"), true, true);
+        handler = new ElasticSearchEventHandler(client, indexSettings);
+        handler.setUseAsyncJest(false);
+        db.registerTransactionEventHandler(handler);
+    }
+
+    @After
+    public void tearDown() {
+        db.unregisterTransactionEventHandler(handler);
+        db.shutdown();
+    }
+
+    private Node createPerson() {
+        try (Transaction tx = db.beginTx()) {
+            Node node = db.createNode(Label.label("Person"));
+            node.setProperty("name", "Alice");
+            node.setProperty("uuid", "a-1");
+            node.setProperty("tenant", "t1");
+            tx.success();
+            return node;
+        }
+    }
+
+    @Test
+    public void testIndexesIntoEveryIndexOfTheLabel() {
+        Node node = createPerson();
+
+        String bulk = client.requests.get(0);
+        assertTrue(bulk, bulk.contains("{\"index\":{\"_id\":\"" + node.getId() + "\",\"_index\":\"people\",\"_type\":\"Person\",\"_version\""));
+        assertTrue(bulk, bulk.contains("{\"index\":{\"_id\":\"a-1\",\"_index\":\"tenants\",\"_type\":\"Person\",\"_routing\":\"t1\",\"_version\""));
+    }
+
+    @Test
+    public void testChangedRoutingDeletesOldDocument() {
+        Node node = createPerson();
+        client.requests.clear();
+
+        try (Transaction tx = db.beginTx()) {
+            node.setProperty("tenant", "t2");
+            tx.success();
+        }
+
+        String bulk = client.requests.get(0);
+        assertTrue(bulk, bulk.contains("{\"delete\":{\"_id\":\"a-1\",\"_index\":\"tenants\",\"_type\":\"Person\",\"_routing\":\"t1\",\"_version\""));
+        assertTrue(bulk, bulk.contains("{\"index\":{\"_id\":\"a-1\",\"_index\":\"tenants\",\"_type\":\"Person\",\"_routing\":\"t2\",\"_version\""));
+    }
+
+    @Test
+    public void testDeleteUsesCommittedKeys() {
+        Node node = createPerson();
+        client.requests.clear();
+
+        try (Transaction tx = db.beginTx()) {
+            node.delete();
+            tx.success();
+        }
+
+        String bulk = client.requests.get(0);
+        assertTrue(bulk, bulk.contains("{\"delete\":{\"_id\":\"" + node.getId() + "\",\"_index\":\"people\",\"_type\":\"Person\",\"_version\""));
+        assertTrue(bulk, bulk.contains("{\"delete\":{\"_id\":\"a-1\",\"_index\":\"tenants\",\"_type\":\"Person\",\"_routing\":\"t1\",\"_version\""));
+    }
+
+    @Test
+    public void testArrayKeysAreJoined() {
+        try (Transaction tx = db.beginTx()) {
+            Node node = db.createNode(Label.label("Person"));
+            node.setProperty("name", "Bob");
+            node.setProperty("uuid", new String[]{"b-1", "b-2"});
+            node.setProperty("tenant", new long[]{1, 2});
+            tx.success();
+        }
+
+        String bulk = client.requests.get(0);
+        assertTrue(bulk, bulk.contains("{\"index\":{\"_id\":\"b-1,b-2\",\"_index\":\"tenants\",\"_type\":\"Person\",\"_routing\":\"1,2\",\"_version\""));
+    }
+
+    @Test
+    public void testDocumentsAreVersionedWithTheTransactionId() {
+        Node node = createPerson();
+        long created = lastTransactionId();
+        client.requests.clear();
+
+        try (Transaction tx = db.beginTx()) {
+            node.delete();
+            tx.success();
+        }
+
+        String bulk = client.requests.get(0);
+        assertTrue(bulk, bulk.contains("\"_routing\":\"t1\",\"_version\":\"" + lastTransactionId() + "\",\"_version_type\":\"external_gte\"}}"));
+        assertTrue(lastTransactionId() > created);
+    }
+
+    private long lastTransactionId() {
+        return ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(TransactionIdStore.class).getLastCommittedTransactionId();
+    }
+
+    @Test
+    public void testOnlyIndicesWithoutIdPropertyUseNodeIds() {
+        assertTrue(handler.getIndexSettings().usesNodeIds("people"));
+        assertFalse(handler.getIndexSettings().usesNodeIds("tenants"));
+    }
+}
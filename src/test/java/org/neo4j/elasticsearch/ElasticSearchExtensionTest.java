@@ -0,0 +1,86 @@
+package org.neo4j.elasticsearch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.impl.proc.Procedures;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+public class ElasticSearchExtensionTest {
+
+    private GraphDatabaseService db;
+    private ElasticSearchExtension extension;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new TestGraphDatabaseFactory()
+                .newImpermanentDatabaseBuilder()
+                .setConfig(stringMap(
+                        "elasticsearch.host_name", "http://localhost:1",
+                        "elasticsearch.index_spec", "people:Person(name), places:Place(name)"))
+                .newGraphDatabase();
+        extension = ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(ElasticSearchExtension.class);
+    }
+
+    @After
+    public void tearDown() {
+        db.shutdown();
+    }
+
+    @Test
+    public void testProceduresRegister() throws Exception {
+        ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(Procedures.class)
+                .registerProcedure(ElasticSearchProcedures.class);
+    }
+
+    @Test
+    public void testStartsWithoutElasticSearch() throws Exception {
+        try (Transaction tx = db.beginTx()) {
+            db.createNode(Label.label("Person")).setProperty("name", "Alice");
+            tx.success();
+        }
+
+        ElasticSearchExtension.Status status = extension.getStatus().get(0);
+        assertEquals("default", status.name);
+        assertEquals("STARTING", status.state);
+        assertEquals(1, status.queued);
+        assertEquals(0, status.dropped);
+    }
+
+    @Test
+    public void testReloadIndexSpec() throws Exception {
+        List<ElasticSearchExtension.IndexChange> changes =
+                extension.reloadIndexSpec("people:Person(name,age), companies:Company(name)");
+
+        Map<String, ElasticSearchExtension.IndexChange> byIndex = new HashMap<>();
+        for (ElasticSearchExtension.IndexChange change : changes) byIndex.put(change.index, change);
+        assertEquals(3, changes.size());
+        assertEquals("changed", byIndex.get("people").change);
+        assertTrue(byIndex.get("people").backfill);
+        assertEquals("added", byIndex.get("companies").change);
+        assertTrue(byIndex.get("companies").backfill);
+        assertEquals("removed", byIndex.get("places").change);
+        assertFalse(byIndex.get("places").backfill);
+
+        changes = extension.reloadIndexSpec("people:Person(name)");
+        assertEquals("changed", changes.get(0).change);
+        assertFalse(changes.get(0).backfill);
+    }
+
+    @Test(expected = ParseException.class)
+    public void testReloadRejectsInvalidIndexSpec() throws Exception {
+        extension.reloadIndexSpec("people:Person");
+    }
+}
@@ -0,0 +1,99 @@
+package org.neo4j.elasticsearch;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.searchbox.action.Action;
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestResult;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.SearchResult;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class ElasticSearchHitIteratorTest {
+
+    private static class PagingClient implements JestClient {
+        final List<JsonObject> requests = new ArrayList<>();
+        final int total;
+
+        PagingClient(int total) {
+            this.total = total;
+        }
+
+        @Override
+        public <T extends JestResult> T execute(Action<T> action) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T extends JestResult> void executeAsync(Action<T> action, JestResultHandler<? super T> handler) {
+            JsonObject body = new JsonParser().parse(action.getData(new Gson())).getAsJsonObject();
+            requests.add(body);
+            int from = body.has("search_after") ? body.getAsJsonArray("search_after").get(1).getAsInt() + 1 : 0;
+            int size = body.get("size").getAsInt();
+
+            JsonArray hits = new JsonArray();
+            for (int i = from; i < Math.min(from + size, total); i++) {
+                hits.add(new JsonParser().parse("{\"_id\":\"" + i + "\",\"_score\":1.0,\"_source\":{\"id\":\"" + i + "\"},\"sort\":[1.0," + i + "]}"));
+            }
+            JsonObject json = new JsonObject();
+            JsonObject hitsObject = new JsonObject();
+            hitsObject.add("hits", hits);
+            json.add("hits", hitsObject);
+
+            SearchResult result = new SearchResult(new Gson());
+            result.setSucceeded(true);
+            result.setJsonObject(json);
+            ((JestResultHandler<SearchResult>) handler).completed(result);
+        }
+
+        @Override
+        public void shutdownClient() {
+        }
+
+        @Override
+        public void setServers(Set<String> servers) {
+        }
+    }
+
+    @Test
+    public void testPagesWithSearchAfter() {
+        PagingClient client = new PagingClient(5);
+        ElasticSearchHitIterator it = new ElasticSearchHitIterator(client, "index", "foo:bar", 2);
+
+        List<String> ids = new ArrayList<>();
+        while (it.hasNext()) {
+            ids.add(it.next().source.get("id").getAsString());
+        }
+
+        assertEquals(asList("0", "1", "2", "3", "4"), ids);
+        assertEquals(3, client.requests.size());
+        assertFalse(client.requests.get(0).has("search_after"));
+        assertEquals(1, client.requests.get(1).getAsJsonArray("search_after").get(1).getAsInt());
+    }
+
+    @Test
+    public void testPrefetchesNextPageBeforeConsumption() {
+        PagingClient client = new PagingClient(4);
+        ElasticSearchHitIterator it = new ElasticSearchHitIterator(client, "index", "*", 2);
+
+        assertEquals(1, client.requests.size());
+        it.next();
+        assertEquals(2, client.requests.size());
+    }
+
+    @Test
+    public void testParseQuery() {
+        assertEquals("{\"query_string\":{\"query\":\"name:foo\"}}", ElasticSearchHitIterator.parseQuery("name:foo").toString());
+        assertEquals("{\"match_all\":{}}", ElasticSearchHitIterator.parseQuery(" {\"match_all\":{}} ").toString());
+    }
+}
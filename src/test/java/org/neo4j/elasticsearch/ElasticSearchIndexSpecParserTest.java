@@ -13,6 +13,7 @@ import static java.util.Arrays.asList;
 import static org.junit.Assert.*;
 import static org.neo4j.elasticsearch.ElasticSearchIndexSpecParser.parseIndexSpec;
 
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Label;
 
 public class ElasticSearchIndexSpecParserTest {
@@ -25,6 +26,21 @@ public class ElasticSearchIndexSpecParserTest {
         assertEquals(new HashSet<>(asList("Label", "OtherLabel")), rv.keySet());
     }
 
+    @Test
+    public void testParseRelatedProperties() throws ParseException {
+        Map<String, List<ElasticSearchIndexSpec>> rv =
+                parseIndexSpec("people:Person(name, WORKS_AT>Company.name, <KNOWS<Person.name)");
+        ElasticSearchIndexSpec spec = rv.get("Person").get(0);
+        assertEquals(new HashSet<>(asList("name")), spec.getProperties());
+        assertEquals(2, spec.getRelatedProperties().size());
+        ElasticSearchRelatedProperty worksAt = spec.getRelatedProperties().get(0);
+        assertEquals("WORKS_AT", worksAt.getType().name());
+        assertEquals(Direction.OUTGOING, worksAt.getDirection());
+        assertEquals("Company", worksAt.getLabel().name());
+        assertEquals("WORKS_AT.Company.name", worksAt.getFieldName());
+        assertEquals(Direction.INCOMING, spec.getRelatedProperties().get(1).getDirection());
+    }
+
     @Test
     public void testIndexSpecBadSyntax() throws ParseException {
         Map rv = parseIndexSpec("index_name:Label(foo,bar");
@@ -40,5 +56,75 @@ public class ElasticSearchIndexSpecParserTest {
     	Map rv = parseIndexSpec("index_name:Label(foo,bar),index_name:Label(quux)");
     }
 
+    @Test
+    public void testParseMultipleIndicesPerLabel() throws ParseException {
+        Map<String, List<ElasticSearchIndexSpec>> rv =
+                parseIndexSpec("index_name:Label(foo,bar),other_index_name:Label(quux)[id=uuid,routing=tenant]");
+        assertEquals(1, rv.size());
+        List<ElasticSearchIndexSpec> specs = rv.get("Label");
+        assertEquals(2, specs.size());
+        assertEquals("index_name", specs.get(0).getIndexName());
+        assertNull(specs.get(0).getIdProperty());
+        assertNull(specs.get(0).getRoutingProperty());
+        assertEquals("other_index_name", specs.get(1).getIndexName());
+        assertEquals("uuid", specs.get(1).getIdProperty());
+        assertEquals("tenant", specs.get(1).getRoutingProperty());
+    }
+
+    @Test(expected=ParseException.class)
+    public void testIndexSpecUnknownOption() throws ParseException {
+        parseIndexSpec("index_name:Label(foo)[shard=tenant]");
+    }
+
+    @Test
+    public void testParseFieldTypes() throws ParseException {
+        ElasticSearchIndexSpec spec = parseIndexSpec("index_name:Label(foo:text/english, bar : integer, quux, KNOWS>Person.name:keyword)")
+                .get("Label").get(0);
+        assertEquals(new HashSet<>(asList("foo", "bar", "quux")), spec.getProperties());
+        assertEquals(new ElasticSearchFieldType("text", "english"), spec.getFieldTypes().get("foo"));
+        assertEquals(new ElasticSearchFieldType("integer", null), spec.getFieldTypes().get("bar"));
+        assertNull(spec.getFieldTypes().get("quux"));
+        assertEquals(ElasticSearchFieldType.KEYWORD, spec.getFieldTypes().get("KNOWS.Person.name"));
+        assertFalse(spec.isFullyTyped());
+    }
+
+    @Test(expected=ParseException.class)
+    public void testIndexSpecUnknownFieldType() throws ParseException {
+        parseIndexSpec("index_name:Label(foo:string)");
+    }
+
+    @Test(expected=ParseException.class)
+    public void testIndexSpecAnalyzerOnlyForText() throws ParseException {
+        parseIndexSpec("index_name:Label(foo:keyword/english)");
+    }
+
+    @Test
+    public void testParseRollover() throws ParseException {
+        Map<String, List<ElasticSearchIndexSpec>> map = parseIndexSpec("events:Event(name)[rollover_docs=1000000, rollover_age=7d], events:LogEntry(text)[rollover_docs=1000000,rollover_age=7d]");
+        assertEquals(new ElasticSearchRollover.Conditions(1000000L, "7d"), map.get("Event").get(0).getRollover());
+        assertEquals(map.get("Event").get(0).getRollover(), map.get("LogEntry").get(0).getRollover());
+        assertNull(parseIndexSpec("index_name:Label(foo)").get("Label").get(0).getRollover());
+    }
+
+    @Test(expected=ParseException.class)
+    public void testIndexSpecRolloverNeedsNodeId() throws ParseException {
+        parseIndexSpec("events:Event(uuid,name)[id=uuid,rollover_docs=1000]");
+    }
+
+    @Test(expected=ParseException.class)
+    public void testIndexSpecRolloverConditionsDiffer() throws ParseException {
+        parseIndexSpec("events:Event(name)[rollover_age=7d], events:LogEntry(text)[rollover_age=1d]");
+    }
+
+    @Test(expected=ParseException.class)
+    public void testIndexSpecRolloverSizeUnsupported() throws ParseException {
+        parseIndexSpec("events:Event(name)[rollover_size=50gb]");
+    }
+
+    @Test(expected=ParseException.class)
+    public void testIndexSpecRolloverPatternCollides() throws ParseException {
+        parseIndexSpec("events:Event(name)[rollover_age=7d], events-archive:Archived(name)");
+    }
+
 
 }
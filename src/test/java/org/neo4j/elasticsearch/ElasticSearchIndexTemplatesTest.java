@@ -0,0 +1,63 @@
+package org.neo4j.elasticsearch;
+
+import com.google.gson.JsonObject;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ElasticSearchIndexTemplatesTest {
+
+    private Map<String, JsonObject> templates(String spec) throws Exception {
+        return ElasticSearchIndexTemplates.templates(
+                new ElasticSearchIndexSettings(ElasticSearchIndexSpecParser.parseIndexSpec(spec), true, true));
+    }
+
+    @Test
+    public void testFullyTypedMappingIsStrict() throws Exception {
+        JsonObject template = templates("people:Person(name:text/english, age:integer, KNOWS>Person.name:keyword)").get("neo4j-people");
+
+        assertEquals("people", ElasticSearchIndexTemplates.index(template));
+        JsonObject mapping = template.getAsJsonObject("mappings").getAsJsonObject("Person");
+        assertEquals("strict", mapping.get("dynamic").getAsString());
+        JsonObject properties = mapping.getAsJsonObject("properties");
+        assertEquals("keyword", properties.getAsJsonObject("id").get("type").getAsString());
+        assertEquals("keyword", properties.getAsJsonObject("labels").get("type").getAsString());
+        assertFalse(properties.getAsJsonObject("labels").get("norms").getAsBoolean());
+        assertEquals("english", properties.getAsJsonObject("name").get("analyzer").getAsString());
+        assertFalse(properties.getAsJsonObject("name").has("include_in_all"));
+        assertFalse(properties.getAsJsonObject("age").get("include_in_all").getAsBoolean());
+        JsonObject related = properties.getAsJsonObject("KNOWS").getAsJsonObject("properties")
+                .getAsJsonObject("Person").getAsJsonObject("properties").getAsJsonObject("name");
+        assertEquals("keyword", related.get("type").getAsString());
+    }
+
+    @Test
+    public void testUntypedFieldsStayDynamic() throws Exception {
+        JsonObject template = templates("people:Person(name, age:integer)").get("neo4j-people");
+
+        JsonObject mapping = template.getAsJsonObject("mappings").getAsJsonObject("Person");
+        assertEquals("true", mapping.get("dynamic").getAsString());
+        assertFalse(mapping.getAsJsonObject("properties").has("name"));
+    }
+
+    @Test
+    public void testOneTemplatePerIndex() throws Exception {
+        Map<String, JsonObject> templates = templates("things:Person(name), things:Place(name:keyword), people:Person(name)");
+
+        assertEquals(2, templates.size());
+        JsonObject mappings = templates.get("neo4j-things").getAsJsonObject("mappings");
+        assertTrue(mappings.has("Person"));
+        assertTrue(mappings.has("Place"));
+    }
+
+    @Test
+    public void testRolloverTemplateAppliesToBackingIndices() throws Exception {
+        JsonObject template = templates("events:Event(name)[rollover_docs=1000]").get("neo4j-events");
+
+        assertEquals("events-*", template.get("template").getAsString());
+        assertTrue(template.getAsJsonObject("aliases").has("events"));
+        assertEquals("events", ElasticSearchIndexTemplates.index(template));
+    }
+}
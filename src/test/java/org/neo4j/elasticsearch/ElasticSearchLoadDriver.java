@@ -0,0 +1,301 @@
+package org.neo4j.elasticsearch;
+
+import com.google.gson.JsonObject;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a write workload through an embedded database, once without and once with the extension sending to an
+ * {@link ElasticSearchStub}, and reports the commit latency overhead, how long documents took to arrive
+ * and how many changes never made it.
+ * Every write sets a unique <code>seq</code> property, so a document can be matched with the commit that wrote it.
+ */
+public class ElasticSearchLoadDriver {
+    public final static String INDEX = "load";
+    public final static Label LABEL = Label.label("Load");
+
+    private int threads = 4;
+    private int transactions = 200;
+    private int writesPerTransaction = 10;
+    private double updateRatio = 0.3;
+    private double deleteRatio = 0.1;
+    private long settleMillis = TimeUnit.SECONDS.toMillis(30);
+    private Map<String, String> config = new HashMap<>();
+
+    private final AtomicLong seq = new AtomicLong();
+    private final Map<Long, Long> committed = new ConcurrentHashMap<>();
+    private final Map<Long, Long> arrived = new ConcurrentHashMap<>();
+
+    public ElasticSearchLoadDriver threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @param transactions the transactions per thread
+     */
+    public ElasticSearchLoadDriver transactions(int transactions) {
+        this.transactions = transactions;
+        return this;
+    }
+
+    public ElasticSearchLoadDriver writesPerTransaction(int writes) {
+        this.writesPerTransaction = writes;
+        return this;
+    }
+
+    /**
+     * @param updateRatio share of writes updating an existing node
+     * @param deleteRatio share of writes deleting an existing node, the rest creates nodes
+     */
+    public ElasticSearchLoadDriver mix(double updateRatio, double deleteRatio) {
+        this.updateRatio = updateRatio;
+        this.deleteRatio = deleteRatio;
+        return this;
+    }
+
+    /**
+     * @param millis how long to wait for the last changes to arrive before counting them as lost
+     */
+    public ElasticSearchLoadDriver settle(long millis) {
+        this.settleMillis = millis;
+        return this;
+    }
+
+    /**
+     * Additional database settings, e.g. <code>elasticsearch.batch_size</code>.
+     */
+    public ElasticSearchLoadDriver config(String key, String value) {
+        this.config.put(key, value);
+        return this;
+    }
+
+    /**
+     * Configures the driver from <code>load.*</code> system properties, keeping the current values as defaults.
+     */
+    public ElasticSearchLoadDriver fromSystemProperties() {
+        threads = Integer.getInteger("load.threads", threads);
+        transactions = Integer.getInteger("load.transactions", transactions);
+        writesPerTransaction = Integer.getInteger("load.writesPerTransaction", writesPerTransaction);
+        updateRatio = Double.parseDouble(System.getProperty("load.updateRatio", String.valueOf(updateRatio)));
+        deleteRatio = Double.parseDouble(System.getProperty("load.deleteRatio", String.valueOf(deleteRatio)));
+        return this;
+    }
+
+    public static class Report {
+        public long writes;
+        public long[] baselineCommitMicros;
+        public long[] commitMicros;
+        public long[] lagMillis;
+        public long lostUpdates;
+        public long lostDeletes;
+        public List<ElasticSearchExtension.Status> status;
+
+        public long lost() {
+            return lostUpdates + lostDeletes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("writes=%d commit p50/p99 baseline=%d/%dus with extension=%d/%dus overhead p50=%dus " +
+                            "lag p50/p99/max=%d/%d/%dms lost updates=%d deletes=%d",
+                    writes, percentile(baselineCommitMicros, 50), percentile(baselineCommitMicros, 99),
+                    percentile(commitMicros, 50), percentile(commitMicros, 99),
+                    percentile(commitMicros, 50) - percentile(baselineCommitMicros, 50),
+                    percentile(lagMillis, 50), percentile(lagMillis, 99), percentile(lagMillis, 100),
+                    lostUpdates, lostDeletes);
+        }
+    }
+
+    public static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * percentile / 100.0) - 1)];
+    }
+
+    public Report run(ElasticSearchStub stub) throws Exception {
+        Report report = new Report();
+
+        GraphDatabaseService baseline = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try {
+            report.baselineCommitMicros = workload(baseline, new Workload[threads]);
+        } finally {
+            baseline.shutdown();
+        }
+        committed.clear();
+        seq.set(0);
+
+        stub.listener((index, source) -> {
+            if (INDEX.equals(index) && source.has("seq")) arrived.putIfAbsent(source.get("seq").getAsLong(), System.nanoTime());
+        });
+        Map<String, String> settings = new HashMap<>(config);
+        settings.put("elasticsearch.host_name", stub.getUrl());
+        settings.put("elasticsearch.index_spec", INDEX + ":" + LABEL.name() + "(seq,payload)");
+        GraphDatabaseService db = new TestGraphDatabaseFactory().newImpermanentDatabaseBuilder().setConfig(settings).newGraphDatabase();
+        try {
+            ElasticSearchExtension extension = ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(ElasticSearchExtension.class);
+            waitUntilReady(extension);
+            Workload[] workloads = new Workload[threads];
+            report.commitMicros = workload(db, workloads);
+            report.writes = seq.get();
+            settle(db, stub, workloads, report);
+            report.status = extension.getStatus();
+        } finally {
+            db.shutdown();
+        }
+
+        List<Long> lags = new ArrayList<>();
+        for (Map.Entry<Long, Long> commit : committed.entrySet()) {
+            Long arrival = arrived.get(commit.getKey());
+            if (arrival != null) lags.add(TimeUnit.NANOSECONDS.toMillis(Math.max(0, arrival - commit.getValue())));
+        }
+        report.lagMillis = sorted(lags);
+        return report;
+    }
+
+    private void waitUntilReady(ElasticSearchExtension extension) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + settleMillis;
+        while (!"READY".equals(extension.getStatus().get(0).state) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private long[] workload(GraphDatabaseService db, Workload[] workloads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<Long>>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                Workload workload = workloads[i] = new Workload(db);
+                futures.add(executor.submit(workload::run));
+            }
+            List<Long> latencies = new ArrayList<>();
+            for (Future<List<Long>> future : futures) latencies.addAll(future.get());
+            return sorted(latencies);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits until every live node's document has its last <code>seq</code> and every deleted node's document is gone,
+     * or the settle time is up, and counts what's missing.
+     */
+    private void settle(GraphDatabaseService db, ElasticSearchStub stub, Workload[] workloads, Report report) throws InterruptedException {
+        Map<Long, Long> expected = new HashMap<>();
+        Set<Long> deleted = new HashSet<>();
+        try (Transaction tx = db.beginTx()) {
+            for (Workload workload : workloads) {
+                for (Long id : workload.live) expected.put(id, (Long) db.getNodeById(id).getProperty("seq"));
+                deleted.addAll(workload.deleted);
+            }
+            tx.success();
+        }
+        deleted.removeAll(expected.keySet());
+        long deadline = System.currentTimeMillis() + settleMillis;
+        while (true) {
+            report.lostUpdates = 0;
+            report.lostDeletes = 0;
+            for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+                JsonObject doc = stub.get(INDEX, String.valueOf(entry.getKey()));
+                if (doc == null || doc.get("seq").getAsLong() != entry.getValue()) report.lostUpdates++;
+            }
+            for (Long id : deleted) {
+                if (stub.get(INDEX, String.valueOf(id)) != null) report.lostDeletes++;
+            }
+            if (report.lost() == 0 || System.currentTimeMillis() > deadline) return;
+            Thread.sleep(100);
+        }
+    }
+
+    private static long[] sorted(List<Long> values) {
+        long[] result = new long[values.size()];
+        for (int i = 0; i < result.length; i++) result[i] = values.get(i);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * The writes of one thread, on nodes only this thread touches.
+     */
+    private class Workload {
+        final GraphDatabaseService db;
+        final List<Long> live = new ArrayList<>();
+        final List<Long> deleted = new ArrayList<>();
+
+        Workload(GraphDatabaseService db) {
+            this.db = db;
+        }
+
+        List<Long> run() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            List<Long> latencies = new ArrayList<>(transactions);
+            for (int t = 0; t < transactions; t++) {
+                List<Long> written = new ArrayList<>(writesPerTransaction);
+                Transaction tx = db.beginTx();
+                try {
+                    for (int w = 0; w < writesPerTransaction; w++) {
+                        double dice = random.nextDouble();
+                        if (live.isEmpty() || dice >= updateRatio + deleteRatio) {
+                            Node node = db.createNode(LABEL);
+                            written.add(write(node, random));
+                            live.add(node.getId());
+                        } else if (dice < updateRatio) {
+                            written.add(write(db.getNodeById(live.get(random.nextInt(live.size()))), random));
+                        } else {
+                            Long id = live.remove(random.nextInt(live.size()));
+                            db.getNodeById(id).delete();
+                            deleted.add(id);
+                        }
+                    }
+                    tx.success();
+                } finally {
+                    long start = System.nanoTime();
+                    tx.close();
+                    long end = System.nanoTime();
+                    latencies.add(TimeUnit.NANOSECONDS.toMicros(end - start));
+                    for (Long s : written) committed.put(s, end);
+                }
+            }
+            return latencies;
+        }
+
+        private long write(Node node, ThreadLocalRandom random) {
+            long s = seq.incrementAndGet();
+            node.setProperty("seq", s);
+            node.setProperty("payload", Long.toHexString(random.nextLong()));
+            return s;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        try (ElasticSearchStub stub = new ElasticSearchStub()) {
+            stub.latency(Long.getLong("load.latency", 0))
+                    .throughput(Integer.getInteger("load.docsPerSecond", 0))
+                    .itemFailures(Double.parseDouble(System.getProperty("load.rejectRate", "0")),
+                            Double.parseDouble(System.getProperty("load.errorRate", "0")))
+                    .drops(Double.parseDouble(System.getProperty("load.dropRate", "0")));
+            Report report = new ElasticSearchLoadDriver().fromSystemProperties().run(stub);
+            System.out.println(report);
+            System.out.println("stub requests=" + stub.requests + " items=" + stub.items + " rejected=" + stub.rejected +
+                    " errors=" + stub.errors + " dropped connections=" + stub.dropped);
+        }
+    }
+}
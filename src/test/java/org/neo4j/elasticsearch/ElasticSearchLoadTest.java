@@ -0,0 +1,58 @@
+package org.neo4j.elasticsearch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs small workloads through the extension against {@link ElasticSearchStub}, larger ones can be run with
+ * <code>mvn test -Dtest=ElasticSearchLoadTest -Dload.threads=8 -Dload.transactions=10000</code>.
+ */
+public class ElasticSearchLoadTest {
+
+    private ElasticSearchStub stub;
+
+    @Before
+    public void setUp() throws Exception {
+        stub = new ElasticSearchStub();
+    }
+
+    @After
+    public void tearDown() {
+        stub.close();
+    }
+
+    private ElasticSearchLoadDriver driver() {
+        return new ElasticSearchLoadDriver().threads(2).transactions(50).writesPerTransaction(10)
+                .config("elasticsearch.batch_size", "100")
+                .fromSystemProperties();
+    }
+
+    @Test
+    public void testIndexesEveryChange() throws Exception {
+        ElasticSearchLoadDriver.Report report = driver().run(stub);
+
+        assertEquals(report.toString(), 0, report.lost());
+        assertTrue(report.toString(), report.lagMillis.length > 0);
+        assertEquals(report.toString(), 0, report.status.get(0).failed);
+        assertEquals(report.toString(), 0, report.status.get(0).dropped);
+    }
+
+    @Test
+    public void testRetriesUntilEveryChangeArrives() throws Exception {
+        stub.latency(5).throughput(20000).itemFailures(0.05, 0.05).drops(0.05);
+
+        ElasticSearchLoadDriver.Report report = driver().run(stub);
+
+        assertRetriedWithoutLoss(report);
+    }
+
+    private void assertRetriedWithoutLoss(ElasticSearchLoadDriver.Report report) {
+        assertEquals(report.toString(), 0, report.lost());
+        assertTrue(report.toString(), stub.rejected.get() + stub.errors.get() > 0);
+        assertTrue(report.toString(), report.status.get(0).retried > 0);
+        assertEquals(report.toString(), 0, report.status.get(0).dropped);
+    }
+}
@@ -0,0 +1,117 @@
+package org.neo4j.elasticsearch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+public class ElasticSearchProceduresTest {
+
+    private ElasticSearchStub stub;
+    private GraphDatabaseService db;
+    private ElasticSearchProcedures procedures;
+
+    @Before
+    public void setUp() throws Exception {
+        stub = new ElasticSearchStub();
+    }
+
+    @After
+    public void tearDown() {
+        if (db != null) db.shutdown();
+        stub.close();
+    }
+
+    /**
+     * Starts the database against the stub and indexes Alice, Bob and Carol into both indices.
+     */
+    private void start(boolean includeIdField) throws Exception {
+        db = new TestGraphDatabaseFactory()
+                .newImpermanentDatabaseBuilder()
+                .setConfig(stringMap(
+                        "elasticsearch.host_name", stub.getUrl(),
+                        "elasticsearch.index_spec", "people:Person(name), tenants:Person(name)[id=uuid]",
+                        "elasticsearch.include_id_field", String.valueOf(includeIdField)))
+                .newGraphDatabase();
+        procedures = new ElasticSearchProcedures();
+        procedures.db = db;
+        ElasticSearchExtension extension = ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(ElasticSearchExtension.class);
+        await(() -> "READY".equals(extension.getStatus().get(0).state));
+        try (Transaction tx = db.beginTx()) {
+            for (String name : new String[]{"Alice", "Bob", "Carol"}) {
+                Node node = db.createNode(Label.label("Person"));
+                node.setProperty("name", name);
+                node.setProperty("uuid", "u-" + name);
+            }
+            tx.success();
+        }
+        await(() -> stub.count("people") == 3 && stub.count("tenants") == 3);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private List<String> search(String index, String query, long pageSize) {
+        List<String> names = new ArrayList<>();
+        try (Transaction tx = db.beginTx()) {
+            procedures.search(index, query, pageSize).forEach(result -> names.add((String) result.node.getProperty("name")));
+            tx.success();
+        }
+        return names;
+    }
+
+    @Test
+    public void testSearchReturnsTheNodesOfTheHits() throws Exception {
+        start(true);
+
+        assertEquals(Collections.singletonList("Bob"), search("people", "name:Bob", 1000));
+        assertEquals(Collections.singletonList("Bob"), search("tenants", "name:Bob", 1000));
+    }
+
+    @Test
+    public void testSearchPagesThroughAllHits() throws Exception {
+        start(true);
+
+        List<String> names = search("people", "*", 1);
+        names.sort(String::compareTo);
+        assertEquals(Arrays.asList("Alice", "Bob", "Carol"), names);
+    }
+
+    @Test
+    public void testSearchFallsBackToNodeIdsWithoutIdField() throws Exception {
+        start(false);
+
+        assertEquals(Collections.singletonList("Carol"), search("people", "name:Carol", 1000));
+        // the documents of tenants are stored under the uuid, they can't be resolved to nodes
+        assertEquals(Collections.<String>emptyList(), search("tenants", "name:Carol", 1000));
+    }
+
+    @Test
+    public void testSearchRejectsNonPositivePageSize() throws Exception {
+        start(true);
+
+        try {
+            search("people", "*", 0);
+            fail("searched with pageSize 0");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("pageSize"));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.neo4j.elasticsearch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ElasticSearchReindexQueueTest {
+
+    private GraphDatabaseService db;
+    private RecordingJestClient client;
+    private ElasticSearchEventHandler handler;
+    private ElasticSearchReindexQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        client = new RecordingJestClient();
+        handler = new ElasticSearchEventHandler(client, new ElasticSearchIndexSettings(
+                ElasticSearchIndexSpecParser.parseIndexSpec("people:Person(name)"), true, true));
+        handler.setUseAsyncJest(false);
+        queue = new ElasticSearchReindexQueue(db, handler, 10, 1000);
+        handler.setReindexQueue(queue);
+        db.registerTransactionEventHandler(handler);
+    }
+
+    @After
+    public void tearDown() {
+        db.unregisterTransactionEventHandler(handler);
+        db.shutdown();
+    }
+
+    private long createPerson(String name) {
+        try (Transaction tx = db.beginTx()) {
+            Node node = db.createNode(Label.label("Person"));
+            node.setProperty("name", name);
+            tx.success();
+            return node.getId();
+        }
+    }
+
+    // the commit runs on its own thread, the flush holds a read transaction on this one
+    private void commitConcurrently(Runnable work) {
+        Thread thread = new Thread(() -> {
+            try (Transaction tx = db.beginTx()) {
+                work.run();
+                tx.success();
+            }
+        });
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void testFlushSendsRenderedNodes() {
+        long alice = createPerson("Alice");
+        long bob = createPerson("Bob");
+        client.requests.clear();
+
+        queue.invalidate(alice);
+        queue.invalidate(bob);
+
+        assertEquals(2, queue.flush());
+        assertEquals(1, client.requests.size());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testDeleteDuringFlushIsNotOvertakenByStaleRender() {
+        long alice = createPerson("Alice");
+        client.requests.clear();
+        queue.invalidate(alice);
+        queue.afterRender = () -> commitConcurrently(() -> db.getNodeById(alice).delete());
+
+        assertEquals(0, queue.flush());
+        assertEquals(1, client.requests.size());
+        assertTrue(client.requests.get(0), client.requests.get(0).contains("\"delete\""));
+        assertEquals(1, queue.size());
+
+        queue.afterRender = () -> {};
+        assertEquals(0, queue.flush());
+        assertEquals(1, client.requests.size());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testChangeDuringFlushIsRenderedAgain() {
+        long alice = createPerson("Alice");
+        long bob = createPerson("Bob");
+        client.requests.clear();
+        queue.invalidate(alice);
+        queue.invalidate(bob);
+        queue.afterRender = () -> commitConcurrently(() -> db.getNodeById(alice).setProperty("name", "Alicia"));
+
+        assertEquals(1, queue.flush());
+        assertEquals(2, client.requests.size());
+        assertTrue(client.requests.get(0), client.requests.get(0).contains("Alicia"));
+        assertFalse(client.requests.get(1), client.requests.get(1).contains("Alice"));
+
+        queue.afterRender = () -> {};
+        assertEquals(1, queue.flush());
+        assertTrue(client.requests.get(2), client.requests.get(2).contains("Alicia"));
+    }
+
+    @Test
+    public void testOverflowIsLeftToTheReindexQueue() {
+        // a second cluster that isn't connected yet and only queues one action
+        ElasticSearchConnection full = new ElasticSearchConnection("full", "http://localhost:1", false,
+                Collections.<String>emptySet(), 10, 1);
+        db.unregisterTransactionEventHandler(handler);
+        handler = new ElasticSearchEventHandler(Arrays.asList(new ElasticSearchConnection(client), full), handler.getIndexSettings());
+        handler.setUseAsyncJest(false);
+        queue = new ElasticSearchReindexQueue(db, handler, 10, 1000);
+        handler.setReindexQueue(queue);
+        db.registerTransactionEventHandler(handler);
+
+        try (Transaction tx = db.beginTx()) {
+            for (String name : new String[]{"Alice", "Bob", "Carol"}) db.createNode(Label.label("Person")).setProperty("name", name);
+            tx.success();
+        }
+        assertEquals(1, full.getQueued());
+        assertEquals(3, queue.size());
+
+        try (Transaction tx = db.beginTx()) {
+            db.findNode(Label.label("Person"), "name", "Bob").delete();
+            tx.success();
+        }
+        assertEquals(4, queue.size());
+
+        // still full, the flush keeps everything for later, the connected cluster gets the delete once more
+        assertEquals(0, queue.flush());
+        assertEquals(4, queue.size());
+        assertEquals(0, full.getDropped());
+        assertEquals(3, client.requests.size());
+    }
+}
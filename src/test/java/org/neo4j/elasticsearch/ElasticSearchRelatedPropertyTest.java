@@ -0,0 +1,96 @@
+package org.neo4j.elasticsearch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import static org.junit.Assert.*;
+
+public class ElasticSearchRelatedPropertyTest {
+
+    private static final RelationshipType WORKS_AT = RelationshipType.withName("WORKS_AT");
+    private GraphDatabaseService db;
+    private RecordingJestClient client;
+    private ElasticSearchEventHandler handler;
+    private ElasticSearchReindexQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        client = new RecordingJestClient();
+        ElasticSearchIndexSettings indexSettings = new ElasticSearchIndexSettings(
+                ElasticSearchIndexSpecParser.parseIndexSpec("people:Person(name, WORKS_AT>Company.name)"), true, true);
+        handler = new ElasticSearchEventHandler(client, indexSettings);
+        handler.setUseAsyncJest(false);
+        db.registerTransactionEventHandler(handler);
+    }
+
+    @After
+    public void tearDown() {
+        db.unregisterTransactionEventHandler(handler);
+        db.shutdown();
+    }
+
+    private Node createPeopleWorkingAt(int count) {
+        try (Transaction tx = db.beginTx()) {
+            Node company = db.createNode(Label.label("Company"));
+            company.setProperty("name", "Acme");
+            for (int i = 0; i < count; i++) {
+                Node person = db.createNode(Label.label("Person"));
+                person.setProperty("name", "person" + i);
+                person.createRelationshipTo(company, WORKS_AT);
+            }
+            tx.success();
+            return company;
+        }
+    }
+
+    private void renameCompany(Node company) {
+        try (Transaction tx = db.beginTx()) {
+            company.setProperty("name", "Acme Corp");
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testDocumentContainsNeighbourProperty() {
+        createPeopleWorkingAt(1);
+        assertEquals(1, client.requests.size());
+        assertTrue(client.requests.get(0).contains("\"WORKS_AT.Company.name\":[\"Acme\"]"));
+    }
+
+    @Test
+    public void testNeighbourChangeReindexesInline() {
+        Node company = createPeopleWorkingAt(3);
+        client.requests.clear();
+
+        renameCompany(company);
+
+        assertEquals(1, client.requests.size());
+        String bulk = client.requests.get(0);
+        assertEquals(3, bulk.split("Acme Corp", -1).length - 1);
+    }
+
+    @Test
+    public void testNeighbourChangeIsBatchedByReindexQueue() {
+        queue = new ElasticSearchReindexQueue(db, handler, 2, 1000);
+        handler.setReindexQueue(queue);
+        Node company = createPeopleWorkingAt(3);
+        client.requests.clear();
+
+        renameCompany(company);
+        renameCompany(company);
+
+        assertEquals(0, client.requests.size());
+        assertEquals(1, queue.size());
+        assertEquals(3, queue.flush());
+        assertEquals(2, client.requests.size());
+        assertEquals(0, queue.size());
+    }
+}
@@ -0,0 +1,124 @@
+package org.neo4j.elasticsearch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class ElasticSearchReloadTest {
+
+    private final static int BACKFILL_RATE = 5;
+
+    private GraphDatabaseService db;
+    private RecordingJestClient client;
+    private ElasticSearchExtension extension;
+
+    @Before
+    public void setUp() throws Throwable {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        client = new RecordingJestClient();
+        extension = new ElasticSearchExtension(db, Collections.singletonList(new ElasticSearchConnection(client)),
+                "people:Person(name), places:Place(name)", true, true, 500, 10L, BACKFILL_RATE, false,
+                new ElasticSearchCommitLog(0, 0, TimeUnit.MILLISECONDS));
+        extension.init();
+        try (Transaction tx = db.beginTx()) {
+            for (int i = 0; i < 10; i++) db.createNode(Label.label("Person")).setProperty("name", "person" + i);
+            for (int i = 0; i < 3; i++) db.createNode(Label.label("Place")).setProperty("name", "place" + i);
+            for (int i = 0; i < 4; i++) db.createNode(Label.label("Company")).setProperty("name", "company" + i);
+            tx.success();
+        }
+        await(() -> documents("people") == 10 && documents("places") == 3);
+        client.requests.clear();
+    }
+
+    @After
+    public void tearDown() throws Throwable {
+        extension.shutdown();
+        db.shutdown();
+    }
+
+    private int documents(String index) {
+        int count = 0;
+        for (String request : new ArrayList<>(client.requests)) {
+            count += request.split("\"_index\":\"" + index + "\"", -1).length - 1;
+        }
+        return count;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    public void testBackfillsOnlyTheLabelsOfAddedIndices() throws Exception {
+        extension.reloadIndexSpec("people:Person(name), places:Place(name), companies:Company(name)");
+
+        await(() -> documents("companies") == 4);
+        Thread.sleep(100);
+        assertEquals(4, documents("companies"));
+        assertEquals(0, documents("people"));
+        assertEquals(0, documents("places"));
+    }
+
+    @Test
+    public void testBackfillIsRateLimited() throws Exception {
+        long started = System.nanoTime();
+        extension.reloadIndexSpec("people:Person(name), places:Place(name), names:Person(name)");
+
+        // the second five of the ten nodes wait for the next second
+        await(() -> documents("names") == 10);
+        assertTrue(System.nanoTime() - started >= TimeUnit.SECONDS.toNanos(1));
+        assertEquals(0, documents("people"));
+        assertEquals(0, documents("places"));
+    }
+
+    @Test
+    public void testBackfillsOnlyTheChangedIndexOfTheLabel() throws Exception {
+        extension.reloadIndexSpec("people:Person(name,age), places:Place(name)");
+
+        await(() -> documents("people") == 10);
+        Thread.sleep(100);
+        assertEquals(10, documents("people"));
+        assertEquals(0, documents("places"));
+    }
+
+    @Test
+    public void testRemovedIndexGetsNoWrites() throws Exception {
+        extension.reloadIndexSpec("people:Person(name)");
+
+        try (Transaction tx = db.beginTx()) {
+            db.createNode(Label.label("Place")).setProperty("name", "new place");
+            Node person = db.createNode(Label.label("Person"));
+            person.setProperty("name", "new person");
+            tx.success();
+        }
+
+        await(() -> documents("people") == 1);
+        assertEquals(0, documents("places"));
+    }
+
+    @Test
+    public void testRefusesKeyChanges() throws Exception {
+        try {
+            extension.reloadIndexSpec("people:Person(name)[id=name], places:Place(name)");
+            fail("changed the id of people");
+        } catch (ParseException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("people"));
+        }
+        assertNull(extension.getIndexSettings().getIndexSpec().get("Person").get(0).getIdProperty());
+    }
+}
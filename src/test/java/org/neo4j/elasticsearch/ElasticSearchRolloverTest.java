@@ -0,0 +1,111 @@
+package org.neo4j.elasticsearch;
+
+import io.searchbox.action.AbstractAction;
+import io.searchbox.action.BulkableAction;
+import io.searchbox.core.Delete;
+import io.searchbox.core.Index;
+import io.searchbox.params.Parameters;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class ElasticSearchRolloverTest {
+
+    private final static ElasticSearchRollover.Conditions TWO_DOCS = new ElasticSearchRollover.Conditions(2L, null);
+
+    private ElasticSearchStub stub;
+    private final AtomicLong highestNodeId = new AtomicLong(-1);
+
+    @Before
+    public void setUp() throws Exception {
+        stub = new ElasticSearchStub();
+    }
+
+    @After
+    public void tearDown() {
+        stub.close();
+    }
+
+    private static BulkableAction index(String index, long nodeId) {
+        return new Index.Builder(Collections.singletonMap("id", nodeId)).index(index).type("Event").id(String.valueOf(nodeId)).build();
+    }
+
+    private ElasticSearchConnection connect() throws InterruptedException {
+        ElasticSearchConnection connection = new ElasticSearchConnection("default", stub.getUrl(), false, Collections.<String>emptySet(), 10, 100);
+        connection.setRollovers(Collections.singletonMap("events", TWO_DOCS), highestNodeId::get);
+        connection.setRolloverInterval(0);
+        connection.start();
+        await(connection::isReady);
+        return connection;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    public void testRoutesByNodeIdRange() {
+        ElasticSearchRollover rollover = new ElasticSearchRollover("events", TWO_DOCS);
+        rollover.getIndices().put(0L, "events-000000000000");
+        rollover.getIndices().put(100L, "events-000000000100");
+
+        assertEquals("events-000000000000", rollover.route(index("events", 99)).getIndex());
+        assertEquals("events-000000000100", rollover.route(index("events", 100)).getIndex());
+        BulkableAction delete = rollover.route(new Delete.Builder("5").index("events").type("Event")
+                .setParameter(Parameters.ROUTING, "tenant").build());
+        assertEquals("events-000000000000", delete.getIndex());
+        assertEquals(Collections.<Object>singletonList("tenant"), new ArrayList<>(((AbstractAction) delete).getParameter(Parameters.ROUTING)));
+        BulkableAction other = index("people", 5);
+        assertSame(other, rollover.route(other));
+    }
+
+    @Test
+    public void testRollsOverAndKeepsOlderNodesInTheirIndex() throws Exception {
+        ElasticSearchConnection connection = connect();
+        assertEquals(Collections.singleton("events-000000000000"), stub.resolve("events"));
+
+        connection.submit(Arrays.asList(index("events", 0), index("events", 1)), true);
+        highestNodeId.set(1);
+        await(() -> stub.resolve("events").size() == 2);
+        connection.submit(Arrays.asList(index("events", 2), index("events", 0)), true);
+        await(() -> connection.getSent() == 4);
+        connection.stop();
+
+        assertEquals(2, stub.count("events-000000000000"));
+        assertEquals(1, stub.count("events-000000000002"));
+        assertEquals(Collections.singleton("events-000000000002"), stub.resolve("events-write"));
+
+        ElasticSearchConnection restarted = connect();
+        assertEquals(Arrays.asList("events-000000000000", "events-000000000002"),
+                Arrays.asList(restarted.getRollovers().get("events").getIndices().values().toArray()));
+        restarted.stop();
+    }
+
+    @Test
+    public void testExistingIndexIsNotRolledOver() throws Exception {
+        ElasticSearchConnection plain = new ElasticSearchConnection("default", stub.getUrl(), false, Collections.<String>emptySet(), 10, 100);
+        plain.start();
+        await(plain::isReady);
+        plain.submit(Collections.singletonList(index("events", 7)), true);
+        await(() -> plain.getSent() == 1);
+        plain.stop();
+
+        ElasticSearchConnection connection = connect();
+        connection.submit(Collections.singletonList(index("events", 8)), true);
+        await(() -> connection.getSent() == 1);
+        connection.stop();
+
+        assertTrue(connection.getRollovers().isEmpty());
+        assertEquals(2, stub.count("events"));
+    }
+}
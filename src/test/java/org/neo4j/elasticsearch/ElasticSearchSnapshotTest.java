@@ -0,0 +1,181 @@
+package org.neo4j.elasticsearch;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class ElasticSearchSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private GraphDatabaseAPI db;
+    private ElasticSearchEventHandler handler;
+
+    @Before
+    public void setUp() throws Exception {
+        db = (GraphDatabaseAPI) new TestGraphDatabaseFactory().newImpermanentDatabase();
+        ElasticSearchIndexSettings indexSettings = new ElasticSearchIndexSettings(
+                ElasticSearchIndexSpecParser.parseIndexSpec("people:Person(name), places:Place(name)"), true, true);
+        indexSettings.setIndexSpecSource("people:Person(name), places:Place(name)");
+        handler = new ElasticSearchEventHandler(new RecordingJestClient(), indexSettings);
+        try (Transaction tx = db.beginTx()) {
+            for (int i = 0; i < 10; i++) {
+                db.createNode(Label.label("Person")).setProperty("name", "person" + i);
+                db.createNode(Label.label("Place")).setProperty("name", "place" + i);
+                db.createNode(Label.label("Other")).setProperty("name", "other" + i);
+            }
+            tx.success();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        db.shutdown();
+    }
+
+    private List<String> lines(Path file, boolean compressed) throws Exception {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(compressed
+                ? new GZIPInputStream(Files.newInputStream(file)) : Files.newInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) lines.add(line);
+        }
+        return lines;
+    }
+
+    @Test
+    public void testWritesShardedBulkFiles() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        ElasticSearchSnapshot.Manifest manifest = new ElasticSearchSnapshot(db, handler, directory, 3, true, Collections.<String, ElasticSearchRollover>emptyMap()).export();
+
+        assertEquals(3, manifest.shards.size());
+        assertEquals(20, manifest.documents);
+        List<String> lines = new ArrayList<>();
+        for (ElasticSearchSnapshot.Shard shard : manifest.shards) {
+            assertTrue(shard.file.endsWith(".gz"));
+            List<String> shardLines = lines(directory.resolve(shard.file), true);
+            assertEquals(2 * shard.documents, shardLines.size());
+            lines.addAll(shardLines);
+        }
+        assertEquals(40, lines.size());
+        assertEquals(manifest.shards.get(0).toNodeId, manifest.shards.get(1).fromNodeId);
+        JsonObject action = new JsonParser().parse(lines.get(0)).getAsJsonObject().getAsJsonObject("index");
+        JsonObject document = new JsonParser().parse(lines.get(1)).getAsJsonObject();
+        assertEquals(document.get("id").getAsString(), action.get("_id").getAsString());
+        assertTrue(document.get("name").getAsString().startsWith("p"));
+    }
+
+    @Test
+    public void testManifestRecordsLastCommittedTransaction() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        ElasticSearchSnapshot.Manifest manifest = new ElasticSearchSnapshot(db, handler, directory, 1, false, Collections.<String, ElasticSearchRollover>emptyMap()).export();
+
+        JsonObject written = new JsonParser().parse(new String(Files.readAllBytes(directory.resolve(ElasticSearchSnapshot.MANIFEST)),
+                StandardCharsets.UTF_8)).getAsJsonObject();
+        assertTrue(manifest.lastCommittedTxId > 0);
+        assertEquals(manifest.lastCommittedTxId, written.get("lastCommittedTxId").getAsLong());
+        assertEquals("people:Person(name), places:Place(name)", written.get("indexSpec").getAsString());
+        assertEquals(40, lines(directory.resolve(manifest.shards.get(0).file), false).size());
+    }
+
+    private List<Long> createEvents(int count) {
+        List<Long> ids = new ArrayList<>();
+        try (Transaction tx = db.beginTx()) {
+            for (int i = 0; i < count; i++) {
+                Node event = db.createNode(Label.label("Event"));
+                event.setProperty("name", "event" + i);
+                ids.add(event.getId());
+            }
+            tx.success();
+        }
+        return ids;
+    }
+
+    private List<String> indicesOfEvents(Map<String, ElasticSearchRollover> rollovers) throws Exception {
+        ElasticSearchEventHandler events = new ElasticSearchEventHandler(new RecordingJestClient(), new ElasticSearchIndexSettings(
+                ElasticSearchIndexSpecParser.parseIndexSpec("events:Event(name)[rollover_docs=2]"), true, true));
+        Path directory = folder.newFolder().toPath();
+        ElasticSearchSnapshot.Manifest manifest = new ElasticSearchSnapshot(db, events, directory, 1, false, rollovers).export();
+
+        List<String> indices = new ArrayList<>();
+        List<String> lines = lines(directory.resolve(manifest.shards.get(0).file), false);
+        for (int i = 0; i < lines.size(); i += 2) {
+            indices.add(new JsonParser().parse(lines.get(i)).getAsJsonObject().getAsJsonObject("index").get("_index").getAsString());
+        }
+        return indices;
+    }
+
+    @Test
+    public void testRolloverDocumentsGoToTheirBackingIndex() throws Exception {
+        List<Long> ids = createEvents(4);
+        ElasticSearchRollover rollover = new ElasticSearchRollover("events", new ElasticSearchRollover.Conditions(2L, null));
+        String older = ElasticSearchRollover.backingIndex("events", 0), newer = ElasticSearchRollover.backingIndex("events", ids.get(1));
+        rollover.getIndices().put(0L, older);
+        rollover.getIndices().put(ids.get(1), newer);
+
+        assertEquals(Arrays.asList(older, newer, newer, newer), indicesOfEvents(Collections.singletonMap("events", rollover)));
+    }
+
+    @Test
+    public void testRolloverDocumentsGoToTheWriteAliasWithoutLookup() throws Exception {
+        createEvents(4);
+
+        assertEquals(Collections.nCopies(4, "events-write"),
+                indicesOfEvents(Collections.<String, ElasticSearchRollover>emptyMap()));
+    }
+
+    @Test
+    public void testSnapshotsStayWithinTheSnapshotDirectory() throws Throwable {
+        ElasticSearchExtension extension = new ElasticSearchExtension(db, Collections.singletonList(new ElasticSearchConnection(new RecordingJestClient())),
+                "people:Person(name)", true, true, 500, 1000L, 1000, false, new ElasticSearchCommitLog(0, 0, TimeUnit.MILLISECONDS));
+        extension.init();
+        try {
+            assertRefused(extension, "daily");
+            Path root = folder.newFolder("snapshots").toPath();
+            extension.setSnapshotDirectory(root.toString());
+            assertRefused(extension, "../escaped");
+            assertRefused(extension, folder.getRoot().getAbsolutePath());
+
+            ElasticSearchSnapshot.Manifest manifest = extension.snapshot("daily", 10000, false);
+            assertTrue(Files.exists(root.resolve("daily").resolve(ElasticSearchSnapshot.MANIFEST)));
+            assertTrue(manifest.shards.size() <= Runtime.getRuntime().availableProcessors());
+            assertEquals(10, manifest.documents);
+        } finally {
+            extension.shutdown();
+        }
+    }
+
+    private static void assertRefused(ElasticSearchExtension extension, String directory) throws Exception {
+        try {
+            extension.snapshot(directory, 1, false);
+            fail("wrote a snapshot to " + directory);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package org.neo4j.elasticsearch;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * An in-process stand-in for ElasticSearch, answering health, template, alias, create index, rollover, <code>_bulk</code>,
+ * index, get, delete and search requests from an in-memory map. Rollovers only check <code>max_docs</code>. Bulk items with an
+ * <code>external_gte</code> version are answered with 409 if the document, or its delete, has a higher version already.
+ * Faults can be injected: latency per request, a cap on the documents per second,
+ * items rejected with 429 or 500 and connections dropped before a request is applied.
+ */
+public class ElasticSearchStub implements AutoCloseable {
+    private final static JsonParser parser = new JsonParser();
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, Map<String, JsonObject>> indices = new ConcurrentHashMap<>();
+    private final Map<String, Long> versions = new ConcurrentHashMap<>();
+    public final Map<String, JsonObject> templates = new ConcurrentHashMap<>();
+    public final Map<String, Set<String>> aliases = new ConcurrentHashMap<>();
+
+    private volatile long latencyMillis;
+    private volatile int docsPerSecond;
+    private volatile double rejectRate;
+    private volatile double errorRate;
+    private volatile double dropRate;
+    private volatile BiConsumer<String, JsonObject> listener = (index, source) -> { };
+    private long nextFree;
+
+    public final AtomicLong requests = new AtomicLong();
+    public final AtomicLong items = new AtomicLong();
+    public final AtomicLong rejected = new AtomicLong();
+    public final AtomicLong errors = new AtomicLong();
+    public final AtomicLong dropped = new AtomicLong();
+    public final AtomicInteger inFlight = new AtomicInteger();
+
+    public ElasticSearchStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        executor = Executors.newFixedThreadPool(8);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public ElasticSearchStub latency(long millis) {
+        this.latencyMillis = millis;
+        return this;
+    }
+
+    /**
+     * @param docsPerSecond the documents accepted per second, 0 for no limit
+     */
+    public ElasticSearchStub throughput(int docsPerSecond) {
+        this.docsPerSecond = docsPerSecond;
+        return this;
+    }
+
+    /**
+     * @param rejectRate share of bulk items answered with 429
+     * @param errorRate share of bulk items answered with 500
+     */
+    public ElasticSearchStub itemFailures(double rejectRate, double errorRate) {
+        this.rejectRate = rejectRate;
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * @param dropRate share of requests whose connection is closed without an answer
+     */
+    public ElasticSearchStub drops(double dropRate) {
+        this.dropRate = dropRate;
+        return this;
+    }
+
+    /**
+     * Called with the index and source of every document written.
+     */
+    public ElasticSearchStub listener(BiConsumer<String, JsonObject> listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    public JsonObject get(String index, String id) {
+        return indices.getOrDefault(index, new ConcurrentHashMap<>()).get(id);
+    }
+
+    /**
+     * @return the indices an alias points at, the index itself if it's no alias
+     */
+    public Set<String> resolve(String index) {
+        Set<String> resolved = aliases.get(index);
+        return resolved == null ? Collections.singleton(index) : resolved;
+    }
+
+    public int count(String index) {
+        return indices.getOrDefault(index, new ConcurrentHashMap<>()).size();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        inFlight.incrementAndGet();
+        try {
+            requests.incrementAndGet();
+            String body = read(exchange.getRequestBody());
+            if (latencyMillis > 0) sleep(latencyMillis);
+            if (dropRate > 0 && ThreadLocalRandom.current().nextDouble() < dropRate) {
+                dropped.incrementAndGet();
+                exchange.close();
+                return;
+            }
+            String method = exchange.getRequestMethod();
+            String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/+");
+            String last = path[path.length - 1];
+            if (path[0].isEmpty() || last.equals("health")) {
+                respond(exchange, 200, "{\"status\":\"green\"}");
+            } else if (path[0].equals("_template") && path.length == 2) {
+                if (method.equals("GET")) {
+                    JsonObject template = templates.get(path[1]);
+                    JsonObject response = new JsonObject();
+                    if (template != null) response.add(path[1], template);
+                    respond(exchange, template == null ? 404 : 200, response.toString());
+                } else {
+                    templates.put(path[1], parser.parse(body).getAsJsonObject());
+                    respond(exchange, 200, "{\"acknowledged\":true}");
+                }
+            } else if (path[0].equals("_alias") && path.length == 2) {
+                JsonObject response = new JsonObject();
+                for (String index : aliases.getOrDefault(path[1], Collections.<String>emptySet())) {
+                    JsonObject alias = new JsonObject();
+                    alias.add(path[1], new JsonObject());
+                    JsonObject wrapper = new JsonObject();
+                    wrapper.add("aliases", alias);
+                    response.add(index, wrapper);
+                }
+                respond(exchange, response.entrySet().isEmpty() ? 404 : 200, response.entrySet().isEmpty() ? error("alias_missing_exception").toString() : response.toString());
+            } else if (path.length == 1 && method.equals("PUT")) {
+                JsonObject error = create(path[0], body.isEmpty() ? new JsonObject() : parser.parse(body).getAsJsonObject());
+                respond(exchange, error == null ? 200 : 400, error == null ? "{\"acknowledged\":true}" : error.toString());
+            } else if (path.length == 3 && path[1].equals("_rollover")) {
+                respond(exchange, 200, rollover(path[0], path[2], parser.parse(body).getAsJsonObject()).toString());
+            } else if (last.equals("_bulk")) {
+                respond(exchange, 200, bulk(body).toString());
+            } else if (last.equals("_search")) {
+                respond(exchange, 200, search(path[0], body).toString());
+            } else if (path.length == 3 && method.equals("DELETE")) {
+                throttle(1);
+                boolean found = delete(path[0], path[2]);
+                respond(exchange, found ? 200 : 404, result(path[0], path[1], path[2], found ? 200 : 404).toString());
+            } else if (path.length == 3 && method.equals("GET")) {
+                JsonObject source = get(path[0], path[2]);
+                respond(exchange, source == null ? 404 : 200, "{\"found\":" + (source != null) + (source == null ? "" : ",\"_source\":" + source) + "}");
+            } else if (path.length == 3) {
+                throttle(1);
+                index(path[0], path[2], parser.parse(body).getAsJsonObject());
+                respond(exchange, 201, result(path[0], path[1], path[2], 201).toString());
+            } else {
+                respond(exchange, 404, "{\"error\":\"unsupported " + method + " " + exchange.getRequestURI() + "\"}");
+            }
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private synchronized JsonObject create(String index, JsonObject request) {
+        if (indices.containsKey(index) || aliases.containsKey(index)) return error("resource_already_exists_exception");
+        if (request.has("aliases")) {
+            for (Map.Entry<String, JsonElement> alias : request.getAsJsonObject("aliases").entrySet()) {
+                if (indices.containsKey(alias.getKey())) return error("invalid_alias_name_exception");
+            }
+            for (Map.Entry<String, JsonElement> alias : request.getAsJsonObject("aliases").entrySet()) {
+                aliases.computeIfAbsent(alias.getKey(), name -> new LinkedHashSet<>()).add(index);
+            }
+        }
+        indices.put(index, new ConcurrentHashMap<>());
+        return null;
+    }
+
+    private synchronized JsonObject rollover(String alias, String next, JsonObject request) {
+        Set<String> current = aliases.getOrDefault(alias, Collections.<String>emptySet());
+        JsonObject response = new JsonObject();
+        if (current.size() != 1) return error("illegal_argument_exception");
+        String old = current.iterator().next();
+        JsonObject conditions = request.getAsJsonObject("conditions");
+        boolean met = conditions.has("max_docs") && count(old) >= conditions.get("max_docs").getAsLong();
+        if (met) {
+            JsonObject error = create(next, request);
+            if (error != null) return error;
+            aliases.put(alias, new LinkedHashSet<>(Collections.singleton(next)));
+        }
+        response.addProperty("old_index", old);
+        response.addProperty("new_index", next);
+        response.addProperty("rolled_over", met);
+        return response;
+    }
+
+    private static JsonObject error(String type) {
+        JsonObject error = new JsonObject();
+        error.addProperty("type", type);
+        JsonObject response = new JsonObject();
+        response.add("error", error);
+        return response;
+    }
+
+    private JsonObject bulk(String body) {
+        String[] lines = body.split("\n");
+        JsonArray results = new JsonArray();
+        boolean failed = false;
+        int i = 0;
+        List<JsonObject> actions = new ArrayList<>();
+        while (i < lines.length) {
+            if (lines[i].trim().isEmpty()) { i++; continue; }
+            JsonObject action = parser.parse(lines[i++]).getAsJsonObject();
+            if (!action.has("delete") && i < lines.length) {
+                action.add("_source", parser.parse(lines[i++]));
+            }
+            actions.add(action);
+        }
+        throttle(actions.size());
+        for (JsonObject action : actions) {
+            Map.Entry<String, JsonElement> entry = action.entrySet().iterator().next();
+            String operation = entry.getKey();
+            JsonObject meta = entry.getValue().getAsJsonObject();
+            String requested = meta.get("_index").getAsString();
+            String index = resolve(requested).size() == 1 ? resolve(requested).iterator().next() : requested, type = meta.get("_type").getAsString(), id = meta.get("_id").getAsString();
+            items.incrementAndGet();
+            double dice = ThreadLocalRandom.current().nextDouble();
+            int status;
+            synchronized (versions) {
+                if (dice < rejectRate) {
+                    status = 429;
+                    rejected.incrementAndGet();
+                } else if (dice < rejectRate + errorRate) {
+                    status = 500;
+                    errors.incrementAndGet();
+                } else if (resolve(index).size() != 1) {
+                    status = 400;
+                } else if (!newer(index, id, meta)) {
+                    status = 409;
+                } else if (operation.equals("delete")) {
+                    status = delete(index, id) ? 200 : 404;
+                } else if (operation.equals("update")) {
+                    JsonObject source = get(index, id);
+                    if (source == null) {
+                        status = 404;
+                    } else {
+                        JsonObject merged = new JsonObject();
+                        for (Map.Entry<String, JsonElement> field : source.entrySet()) merged.add(field.getKey(), field.getValue());
+                        JsonObject doc = action.getAsJsonObject("_source").getAsJsonObject("doc");
+                        for (Map.Entry<String, JsonElement> field : doc.entrySet()) merged.add(field.getKey(), field.getValue());
+                        index(index, id, merged);
+                        status = 200;
+                    }
+                } else {
+                    index(index, id, action.getAsJsonObject("_source"));
+                    status = 201;
+                }
+            }
+            JsonObject item = result(index, type, id, status);
+            if (status == 429 || status >= 500 || status == 400 || status == 409 || (status == 404 && operation.equals("update"))) {
+                failed = true;
+                JsonObject error = new JsonObject();
+                error.addProperty("type", status == 429 ? "es_rejected_execution_exception" : status == 404 ? "document_missing_exception"
+                        : status == 400 ? "illegal_argument_exception" : status == 409 ? "version_conflict_engine_exception" : "stub_exception");
+                item.add("error", error);
+            }
+            JsonObject wrapper = new JsonObject();
+            wrapper.add(operation, item);
+            results.add(wrapper);
+        }
+        JsonObject response = new JsonObject();
+        response.addProperty("took", 1);
+        response.addProperty("errors", failed);
+        response.add("items", results);
+        return response;
+    }
+
+    /**
+     * Records the version of the item, deletes too, unless a higher one is recorded already.
+     * Bulk requests are applied concurrently, so the item is applied while holding the lock on the versions.
+     * @return false if the item must be rejected as a version conflict
+     */
+    private boolean newer(String index, String id, JsonObject meta) {
+        if (!meta.has("_version")) return true;
+        long version = meta.get("_version").getAsLong();
+        Long current = versions.get(index + "/" + id);
+        if (current != null && current > version) return false;
+        versions.put(index + "/" + id, version);
+        return true;
+    }
+
+    private JsonObject search(String index, String body) {
+        JsonObject request = body.isEmpty() ? new JsonObject() : parser.parse(body).getAsJsonObject();
+        int size = request.has("size") ? request.get("size").getAsInt() : 10;
+        String after = request.has("search_after") ? request.getAsJsonArray("search_after").get(1).getAsString() : null;
+        String[] match = match(request.getAsJsonObject("query"));
+
+        List<Map.Entry<String, JsonObject>> docs = new ArrayList<>();
+        for (String resolved : resolve(index)) docs.addAll(indices.getOrDefault(resolved, new ConcurrentHashMap<>()).entrySet());
+        docs.sort(Comparator.comparing(Map.Entry::getKey));
+        JsonArray hits = new JsonArray();
+        int total = 0;
+        for (Map.Entry<String, JsonObject> doc : docs) {
+            if (match != null && !(doc.getValue().has(match[0]) && doc.getValue().get(match[0]).getAsString().equals(match[1]))) continue;
+            total++;
+            if (hits.size() >= size || (after != null && doc.getKey().compareTo(after) <= 0)) continue;
+            JsonObject hit = new JsonObject();
+            hit.addProperty("_index", index);
+            hit.addProperty("_id", doc.getKey());
+            hit.addProperty("_score", 1.0);
+            hit.add("_source", doc.getValue());
+            JsonArray sort = new JsonArray();
+            sort.add(new JsonPrimitive(1.0));
+            sort.add(new JsonPrimitive(doc.getKey()));
+            hit.add("sort", sort);
+            hits.add(hit);
+        }
+        JsonObject result = new JsonObject();
+        result.addProperty("total", total);
+        result.addProperty("max_score", 1.0);
+        result.add("hits", hits);
+        JsonObject response = new JsonObject();
+        response.addProperty("took", 1);
+        response.add("hits", result);
+        return response;
+    }
+
+    /**
+     * @return field and value of a <code>field:value</code> query string or a term query, null to match all
+     */
+    private static String[] match(JsonObject query) {
+        if (query == null) return null;
+        if (query.has("query_string")) {
+            String[] parts = query.getAsJsonObject("query_string").get("query").getAsString().split(":", 2);
+            return parts.length == 2 ? parts : null;
+        }
+        if (query.has("term")) {
+            Map.Entry<String, JsonElement> term = query.getAsJsonObject("term").entrySet().iterator().next();
+            return new String[]{term.getKey(), term.getValue().getAsString()};
+        }
+        return null;
+    }
+
+    private void index(String index, String id, JsonObject source) {
+        indices.computeIfAbsent(index, name -> new ConcurrentHashMap<>()).put(id, source);
+        listener.accept(index, source);
+    }
+
+    private boolean delete(String index, String id) {
+        return indices.getOrDefault(index, new ConcurrentHashMap<>()).remove(id) != null;
+    }
+
+    private static JsonObject result(String index, String type, String id, int status) {
+        JsonObject result = new JsonObject();
+        result.addProperty("_index", index);
+        result.addProperty("_type", type);
+        result.addProperty("_id", id);
+        result.addProperty("status", status);
+        return result;
+    }
+
+    private void throttle(int docs) {
+        int rate = docsPerSecond;
+        if (rate <= 0) return;
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long start = Math.max(now, nextFree);
+            nextFree = start + TimeUnit.SECONDS.toNanos(docs) / rate;
+            wait = start - now;
+        }
+        sleep(TimeUnit.NANOSECONDS.toMillis(wait));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.neo4j.elasticsearch;
+
+import com.google.gson.Gson;
+import io.searchbox.action.Action;
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestResult;
+import io.searchbox.client.JestResultHandler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Records the payload of every action and answers with the queued responses, then with an empty successful result.
+ */
+public class RecordingJestClient implements JestClient {
+    private final Gson gson = new Gson();
+    public final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    public final Queue<String> responses = new ConcurrentLinkedQueue<>();
+
+    @Override
+    public <T extends JestResult> T execute(Action<T> action) {
+        requests.add(action.getData(gson));
+        String response = responses.poll();
+        return action.createNewElasticSearchResult(response == null ? "{}" : response, 200, null, gson);
+    }
+
+    @Override
+    public <T extends JestResult> void executeAsync(Action<T> action, JestResultHandler<? super T> handler) {
+        handler.completed(execute(action));
+    }
+
+    @Override
+    public void shutdownClient() {
+    }
+
+    @Override
+    public void setServers(Set<String> servers) {
+    }
+}